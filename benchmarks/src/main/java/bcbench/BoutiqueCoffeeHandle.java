@@ -0,0 +1,336 @@
+package bcbench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Typed access to a BoutiqueCoffee. The project classes live in the default package, which JMH benchmarks cannot
+ * import, so they are bound once through method handles typed on Object in place of the project classes. The
+ * handles are static finals called with invokeExact, which the JIT compiles to a direct call without boxing the
+ * arguments or allocating an argument array.
+ * <p>
+ * Connection settings are read from system properties: bc.url (default jdbc:postgresql://localhost/postgres),
+ * bc.user (default postgres), bc.password (default empty) and bc.root, the directory holding schema.sql and the
+ * other scripts (default ..).
+ * </p>
+ */
+public final class BoutiqueCoffeeHandle implements AutoCloseable {
+    private static final Class<?> TYPE = load("BoutiqueCoffee");
+    private static final Class<?> BULK_SOURCE = load("BulkSource");
+
+    private static final MethodHandle ADD_STORE = bind("addStore", String.class, String.class, String.class, double.class, double.class);
+    private static final MethodHandle ADD_COFFEE = bind("addCoffee", String.class, String.class, int.class, double.class, double.class, double.class);
+    private static final MethodHandle OFFER_COFFEE = bind("offerCoffee", int.class, int.class);
+    private static final MethodHandle ADD_PROMOTION = bind("addPromotion", String.class, Date.class, Date.class);
+    private static final MethodHandle PROMOTE_FOR = bind("promoteFor", int.class, int.class);
+    private static final MethodHandle HAS_PROMOTION = bind("hasPromotion", int.class, int.class);
+    private static final MethodHandle ADD_MEMBER_LEVEL = bind("addMemberLevel", String.class, double.class);
+    private static final MethodHandle ADD_CUSTOMER = bind("addCustomer", String.class, String.class, String.class, int.class, double.class);
+    private static final MethodHandle ADD_PURCHASE = bind("addPurchase", int.class, int.class, Date.class, List.class, List.class, List.class);
+    private static final MethodHandle ADD_PURCHASES = bind("addPurchases", List.class);
+    private static final MethodHandle GET_COFFEES = bind("getCoffees");
+    private static final MethodHandle GET_COFFEES_SINK = bind("getCoffees", IntConsumer.class);
+    private static final MethodHandle GET_COFFEES_BY_KEYWORDS = bind("getCoffeesByKeywords", String.class, String.class);
+    private static final MethodHandle GET_COFFEES_BY_KEYWORDS_SINK = bind("getCoffeesByKeywords", String.class, String.class, IntConsumer.class);
+    private static final MethodHandle GET_POINTS = bind("getPointsByCustomerId", int.class);
+    private static final MethodHandle TOP_STORES = bind("getTopKStoresInPastXMonth", int.class, int.class);
+    private static final MethodHandle TOP_STORES_SINK = bind("getTopKStoresInPastXMonth", int.class, int.class, IntConsumer.class);
+    private static final MethodHandle TOP_CUSTOMERS = bind("getTopKCustomersInPastXMonth", int.class, int.class);
+    private static final MethodHandle TOP_CUSTOMERS_SINK = bind("getTopKCustomersInPastXMonth", int.class, int.class, IntConsumer.class);
+    private static final MethodHandle RUN_SQL_SCRIPT = bind("runSqlScript", String.class);
+    private static final MethodHandle BULK_LOAD = bind("bulkLoad", List.class);
+    private static final MethodHandle CLOSE = bind("close");
+    private static final MethodHandle NEW_ROWS = bindMethod(BULK_SOURCE, "rows", String.class, String[].class, Iterator.class);
+    private static final MethodHandle NEW_PURCHASE_REQUEST = bindConstructor(load("PurchaseRequest"),
+            int.class, int.class, Date.class, List.class, List.class, List.class);
+
+    private final Object db;
+
+    private BoutiqueCoffeeHandle(Object db) {
+        this.db = db;
+    }
+
+    public static BoutiqueCoffeeHandle open() {
+        try {
+            Constructor<?> constructor = TYPE.getConstructor(String.class, String.class, String.class);
+            constructor.setAccessible(true);
+            return new BoutiqueCoffeeHandle(constructor.newInstance(
+                    System.getProperty("bc.url", "jdbc:postgresql://localhost/postgres"),
+                    System.getProperty("bc.user", "postgres"),
+                    System.getProperty("bc.password", "")));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not connect", e);
+        }
+    }
+
+    /**
+     * Recreates the schema, triggers and procedures, leaving every table empty.
+     */
+    public void resetSchema() {
+        String root = System.getProperty("bc.root", "..");
+        for (String script : new String[]{"schema.sql", "trigger.sql", "jdbc_procedures.sql"}) {
+            try {
+                RUN_SQL_SCRIPT.invokeExact(db, Paths.get(root, script).toString());
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    /**
+     * @param rows - one array per row, its values mapping 1-to-1 to columns
+     * @return the number of rows loaded or -1 if the load failed
+     */
+    public long bulkLoad(String table, String[] columns, Iterator<Object[]> rows) {
+        try {
+            Object source = (Object) NEW_ROWS.invokeExact(table, columns, rows);
+            return (long) BULK_LOAD.invokeExact(db, (List<?>) List.of(source));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public static Object purchaseRequest(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                                         List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        try {
+            return (Object) NEW_PURCHASE_REQUEST.invokeExact(customerId, storeId, purchaseTime, (List<?>) coffeeIds,
+                    (List<?>) purchaseQuantities, (List<?>) redeemQuantities);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
+        try {
+            return (int) ADD_STORE.invokeExact(db, name, address, storeType, gpsLong, gpsLat);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addCoffee(String name, String description, int intensity, double price, double rewardPoints, double redeemPoints) {
+        try {
+            return (int) ADD_COFFEE.invokeExact(db, name, description, intensity, price, rewardPoints, redeemPoints);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int offerCoffee(int storeId, int coffeeId) {
+        try {
+            return (int) OFFER_COFFEE.invokeExact(db, storeId, coffeeId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addPromotion(String name, Date startDate, Date endDate) {
+        try {
+            return (int) ADD_PROMOTION.invokeExact(db, name, startDate, endDate);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int promoteFor(int promotionId, int coffeeId) {
+        try {
+            return (int) PROMOTE_FOR.invokeExact(db, promotionId, coffeeId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int hasPromotion(int storeId, int promotionId) {
+        try {
+            return (int) HAS_PROMOTION.invokeExact(db, storeId, promotionId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addMemberLevel(String name, double boosterFactor) {
+        try {
+            return (int) ADD_MEMBER_LEVEL.invokeExact(db, name, boosterFactor);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        try {
+            return (int) ADD_CUSTOMER.invokeExact(db, firstName, lastName, email, memberLevelId, totalPoints);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                           List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        try {
+            return (int) ADD_PURCHASE.invokeExact(db, customerId, storeId, purchaseTime, (List<?>) coffeeIds,
+                    (List<?>) purchaseQuantities, (List<?>) redeemQuantities);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @param purchases - PurchaseRequests, built with purchaseRequest
+     */
+    public List<?> addPurchases(List<Object> purchases) {
+        try {
+            return (List<?>) ADD_PURCHASES.invokeExact(db, (List<?>) purchases);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public List<?> getCoffees() {
+        try {
+            return (List<?>) GET_COFFEES.invokeExact(db);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int getCoffees(IntConsumer sink) {
+        try {
+            return (int) GET_COFFEES_SINK.invokeExact(db, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public List<?> getCoffeesByKeywords(String keyword1, String keyword2) {
+        try {
+            return (List<?>) GET_COFFEES_BY_KEYWORDS.invokeExact(db, keyword1, keyword2);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int getCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink) {
+        try {
+            return (int) GET_COFFEES_BY_KEYWORDS_SINK.invokeExact(db, keyword1, keyword2, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public double getPointsByCustomerId(int customerId) {
+        try {
+            return (double) GET_POINTS.invokeExact(db, customerId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public List<?> getTopKStoresInPastXMonth(int k, int x) {
+        try {
+            return (List<?>) TOP_STORES.invokeExact(db, k, x);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int getTopKStoresInPastXMonth(int k, int x, IntConsumer sink) {
+        try {
+            return (int) TOP_STORES_SINK.invokeExact(db, k, x, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public List<?> getTopKCustomersInPastXMonth(int k, int x) {
+        try {
+            return (List<?>) TOP_CUSTOMERS.invokeExact(db, k, x);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int getTopKCustomersInPastXMonth(int k, int x, IntConsumer sink) {
+        try {
+            return (int) TOP_CUSTOMERS_SINK.invokeExact(db, k, x, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            CLOSE.invokeExact(db);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Project class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle bind(String name, Class<?>... parameters) {
+        return bindMethod(TYPE, name, parameters);
+    }
+
+    private static MethodHandle bindMethod(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            Method method = type.getMethod(name, parameters);
+            method.setAccessible(true);
+            return erase(MethodHandles.lookup().unreflect(method));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing " + type.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle bindConstructor(Class<?> type, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type.getConstructor(parameters);
+            constructor.setAccessible(true);
+            return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing constructor of " + type.getName(), e);
+        }
+    }
+
+    // types the project classes as Object, which the call sites here can name, so that invokeExact matches them
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isProjectClass(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isProjectClass(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isProjectClass(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,106 @@
+package bcbench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * A freshly created database holding size customers and size purchases, with stores, coffees and promotions
+ * scaled down from size. It is loaded once per trial with COPY, so even the 1M rows data set takes seconds.
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+    static final int MEMBER_LEVELS = 3;
+    static final int LINES_PER_PURCHASE = 3;
+
+    @Param({"100", "1000", "10000", "1000000"})
+    public int size;
+
+    BoutiqueCoffeeHandle db;
+    int stores;
+    int coffees;
+    int promotions;
+    int customers;
+    int purchases;
+
+    @Setup(Level.Trial)
+    public void load() {
+        stores = Math.max(size / 100, 10);
+        coffees = Math.max(size / 100, 10);
+        promotions = Math.max(size / 1000, 5);
+        customers = size;
+        purchases = size;
+
+        db = BoutiqueCoffeeHandle.open();
+        db.resetSchema();
+
+        LocalDate today = LocalDate.now();
+        load("memberlevel", new String[]{"memberlevel_id", "name", "booster_factor"}, MEMBER_LEVELS,
+                i -> new Object[]{i, "level" + i, 1.0 + 0.5 * (i - 1)});
+        load("store", new String[]{"store_id", "name", "address", "store_type", "gps_long", "gps_lat"}, stores,
+                i -> new Object[]{i, "store" + i, i + " Forbes Ave", i % 2 == 0 ? "kiosk" : "cafe", -79.9 + i * 1e-4, 40.4});
+        load("coffee", new String[]{"coffee_id", "name", "description", "intensity", "price", "reward_points", "redeem_points"}, coffees,
+                i -> new Object[]{i, "Coffee " + i, "blend " + i, 1 + i % 10, 2.0 + i % 5, 1 + i % 3, 10 + i % 20});
+        load("offercoffee", new String[]{"store_id", "coffee_id"}, stores * 10,
+                i -> new Object[]{1 + (i - 1) / 10, 1 + ((i - 1) / 10 + (i - 1) % 10) % coffees});
+        load("promotion", new String[]{"promotion_id", "name", "start_date", "end_date"}, promotions,
+                i -> new Object[]{i, "promo" + i, Date.valueOf(today.minusDays(30L * i)), Date.valueOf(today.plusDays(30))});
+        load("promotefor", new String[]{"promotion_id", "coffee_id"}, promotions,
+                i -> new Object[]{i, 1 + (i * 7) % coffees});
+        load("haspromotion", new String[]{"store_id", "promotion_id"}, promotions,
+                i -> new Object[]{1 + (i * 13) % stores, i});
+        load("customer", new String[]{"customer_id", "first_name", "last_name", "email", "memberlevel_id", "total_points"}, customers,
+                i -> new Object[]{i, "First" + i, "Last" + i, "c" + i + "@pitt.edu", 1 + i % MEMBER_LEVELS, 1000.0});
+        // purchases spread over the past year
+        load("purchase", new String[]{"purchase_id", "customer_id", "store_id", "purchase_time"}, purchases,
+                i -> new Object[]{i, 1 + i % customers, 1 + i % stores, Date.valueOf(today.minusDays(i % 365))});
+        load("buycoffee", new String[]{"purchase_id", "coffee_id", "purchase_quantity", "redeem_quantity", "purchase_time"},
+                purchases * LINES_PER_PURCHASE,
+                i -> {
+                    int purchase = 1 + (i - 1) / LINES_PER_PURCHASE;
+                    int line = (i - 1) % LINES_PER_PURCHASE;
+                    return new Object[]{purchase, 1 + (purchase + line) % coffees, 1 + line, 0,
+                            Date.valueOf(today.minusDays(purchase % 365))};
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        db.close();
+    }
+
+    private void load(String table, String[] columns, int count, IntFunction<Object[]> row) {
+        if (db.bulkLoad(table, columns, rows(count, row)) != count) {
+            throw new IllegalStateException("Could not load " + table);
+        }
+    }
+
+    // rows 1..count, generated as they are copied
+    private static Iterator<Object[]> rows(int count, IntFunction<Object[]> row) {
+        return new Iterator<Object[]>() {
+            private int next = 1;
+
+            @Override
+            public boolean hasNext() {
+                return next <= count;
+            }
+
+            @Override
+            public Object[] next() {
+                if (next > count) {
+                    throw new NoSuchElementException();
+                }
+                return row.apply(next++);
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package bcbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * The ITransactionManager read operations over the data set. Sample time mode reports the p50..p99.99 latency
+ * percentiles next to the average.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2)
+public class ReadBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Arguments {
+        final Random random = new Random(42);
+        int customerId;
+        int k;
+        int x;
+        String keyword;
+
+        @Setup(Level.Invocation)
+        public void draw(Dataset data) {
+            customerId = 1 + random.nextInt(data.customers);
+            k = 1 + random.nextInt(10);
+            x = 1 + random.nextInt(12);
+            keyword = Integer.toString(1 + random.nextInt(data.coffees));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sink {
+        final IntSink ids = new IntSink();
+    }
+
+    // collects nothing, so the sink overloads are measured without the cost of a result list
+    static class IntSink implements IntConsumer {
+        long sum;
+
+        @Override
+        public void accept(int value) {
+            sum += value;
+        }
+    }
+
+    @Benchmark
+    public List<?> getCoffees(Dataset data) {
+        return data.db.getCoffees();
+    }
+
+    @Benchmark
+    public int getCoffeesToSink(Dataset data, Sink sink) {
+        return data.db.getCoffees(sink.ids);
+    }
+
+    @Benchmark
+    public List<?> getCoffeesByKeywords(Dataset data, Arguments args) {
+        return data.db.getCoffeesByKeywords("Coffee", args.keyword);
+    }
+
+    @Benchmark
+    public int getCoffeesByKeywordsToSink(Dataset data, Arguments args, Sink sink) {
+        return data.db.getCoffeesByKeywords("Coffee", args.keyword, sink.ids);
+    }
+
+    @Benchmark
+    public double getPointsByCustomerId(Dataset data, Arguments args) {
+        return data.db.getPointsByCustomerId(args.customerId);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<?> getTopKStoresInPastXMonth(Dataset data, Arguments args) {
+        return data.db.getTopKStoresInPastXMonth(args.k, args.x);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int getTopKStoresInPastXMonthToSink(Dataset data, Arguments args, Sink sink) {
+        return data.db.getTopKStoresInPastXMonth(args.k, args.x, sink.ids);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<?> getTopKCustomersInPastXMonth(Dataset data, Arguments args) {
+        return data.db.getTopKCustomersInPastXMonth(args.k, args.x);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int getTopKCustomersInPastXMonthToSink(Dataset data, Arguments args, Sink sink) {
+        return data.db.getTopKCustomersInPastXMonth(args.k, args.x, sink.ids);
+    }
+}
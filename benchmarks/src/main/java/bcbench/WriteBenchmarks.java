@@ -0,0 +1,160 @@
+package bcbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ITransactionManager write operations. Arguments are drawn per invocation; the relationship operations get a
+ * fresh coffee, promotion or store created in the setup, so every measured call inserts a new row instead of
+ * failing on a duplicate key.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2)
+public class WriteBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Arguments {
+        final Random random = new Random(42);
+        int customerId;
+        int storeId;
+        int coffeeId;
+        int promotionId;
+        int memberLevelId;
+        Date purchaseTime;
+        List<Integer> coffeeIds;
+        List<Integer> quantities;
+        List<Integer> redeems;
+
+        @Setup(Level.Invocation)
+        public void draw(Dataset data) {
+            customerId = 1 + random.nextInt(data.customers);
+            storeId = 1 + random.nextInt(data.stores);
+            coffeeId = 1 + random.nextInt(data.coffees);
+            promotionId = 1 + random.nextInt(data.promotions);
+            memberLevelId = 1 + random.nextInt(Dataset.MEMBER_LEVELS);
+            purchaseTime = Date.valueOf(LocalDate.now().minusDays(random.nextInt(365)));
+            coffeeIds = Arrays.asList(coffeeId, 1 + random.nextInt(data.coffees));
+            if (coffeeIds.get(0).equals(coffeeIds.get(1))) {
+                coffeeIds = Arrays.asList(coffeeId);
+            }
+            quantities = new ArrayList<Integer>();
+            redeems = new ArrayList<Integer>();
+            for (int i = 0; i < coffeeIds.size(); i++) {
+                quantities.add(1 + random.nextInt(3));
+                redeems.add(0);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NewCoffee {
+        int coffeeId;
+
+        @Setup(Level.Invocation)
+        public void create(Dataset data) {
+            coffeeId = data.db.addCoffee("Bench", "per invocation", 5, 3.5, 2, 20);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NewPromotion {
+        int promotionId;
+
+        @Setup(Level.Invocation)
+        public void create(Dataset data) {
+            LocalDate today = LocalDate.now();
+            promotionId = data.db.addPromotion("Bench", Date.valueOf(today.minusDays(7)), Date.valueOf(today.plusDays(7)));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PurchaseBatch {
+        static final int BATCH = 100;
+
+        final Random random = new Random(7);
+        List<Object> purchases;
+
+        @Setup(Level.Invocation)
+        public void draw(Dataset data) {
+            purchases = new ArrayList<Object>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                purchases.add(BoutiqueCoffeeHandle.purchaseRequest(1 + random.nextInt(data.customers),
+                        1 + random.nextInt(data.stores), Date.valueOf(LocalDate.now().minusDays(random.nextInt(365))),
+                        Arrays.asList(1 + random.nextInt(data.coffees)), Arrays.asList(1), Arrays.asList(0)));
+            }
+        }
+    }
+
+    @Benchmark
+    public int addStore(Dataset data) {
+        return data.db.addStore("Bench", "1 Bench St", "kiosk", -79.9, 40.4);
+    }
+
+    @Benchmark
+    public int addCoffee(Dataset data) {
+        return data.db.addCoffee("Bench", "bench blend", 5, 3.5, 2, 20);
+    }
+
+    @Benchmark
+    public int offerCoffee(Dataset data, Arguments args, NewCoffee coffee) {
+        return data.db.offerCoffee(args.storeId, coffee.coffeeId);
+    }
+
+    @Benchmark
+    public int addPromotion(Dataset data) {
+        LocalDate today = LocalDate.now();
+        return data.db.addPromotion("Bench", Date.valueOf(today), Date.valueOf(today.plusDays(30)));
+    }
+
+    @Benchmark
+    public int promoteFor(Dataset data, NewPromotion promotion, Arguments args) {
+        return data.db.promoteFor(promotion.promotionId, args.coffeeId);
+    }
+
+    @Benchmark
+    public int hasPromotion(Dataset data, Arguments args, NewPromotion promotion) {
+        return data.db.hasPromotion(args.storeId, promotion.promotionId);
+    }
+
+    @Benchmark
+    public int addMemberLevel(Dataset data) {
+        return data.db.addMemberLevel("Bench", 1.25);
+    }
+
+    @Benchmark
+    public int addCustomer(Dataset data, Arguments args) {
+        return data.db.addCustomer("Bench", "Mark", "bench@pitt.edu", args.memberLevelId, 0);
+    }
+
+    @Benchmark
+    public int addPurchase(Dataset data, Arguments args) {
+        return data.db.addPurchase(args.customerId, args.storeId, args.purchaseTime, args.coffeeIds, args.quantities,
+                args.redeems);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<?> addPurchases(Dataset data, PurchaseBatch batch) {
+        return data.db.addPurchases(batch.purchases);
+    }
+}
@@ -1,45 +1,73 @@
+-- both rankings read the daily revenue rollups, so a window of x months covers at most 30 * x rows per store or customer
+-- plain SQL and STABLE, so the planner inlines the query into the calling one and its plan shows up in EXPLAIN
 CREATE OR REPLACE FUNCTION boutique_coffee.top_stores(k INT, x INT) RETURNS TABLE(store_id INT) AS $$
-    BEGIN
-        RETURN QUERY SELECT top.store_id
+        SELECT top.store_id
         FROM (SELECT totals.store_id, rank() OVER (ORDER BY totals.revenue DESC) as rank
 
-            FROM (SELECT p.store_id, sum(p.price) AS revenue
-
-                FROM (
-                    SELECT purchase.store_id, sum(buycoffee.purchase_quantity * coffee.price) as price
-                    FROM boutique_coffee.purchase
-                        NATURAL INNER JOIN boutique_coffee.buycoffee
-                        NATURAL INNER JOIN boutique_coffee.coffee
-                        WHERE purchase.purchase_time + 30 * x * INTERVAL '1 day' >= NOW()::date
-                        GROUP BY purchase.purchase_id
-                ) AS p -- holds store and total price for each purchase in past x months
-                GROUP BY p.store_id
+            FROM (SELECT r.store_id, sum(r.revenue) AS revenue
+                FROM boutique_coffee.storedailyrevenue AS r
+                WHERE r.day >= NOW()::date - 30 * x
+                GROUP BY r.store_id
 
-            ) AS totals -- totals holds store id and
+            ) AS totals -- totals holds store id and its revenue in past x months
 
         ) AS top
-        WHERE rank <= k;
-    END $$ LANGUAGE plpgsql;
+        WHERE rank <= k
+        ORDER BY rank;
+    $$ LANGUAGE sql STABLE;
 
 CREATE OR REPLACE FUNCTION boutique_coffee.top_customers(k INT, x INT) RETURNS TABLE(customer_id INT) AS $$
-    BEGIN
-        RETURN QUERY SELECT top.customer_id
+        SELECT top.customer_id
         FROM (SELECT totals.customer_id, rank() OVER (ORDER BY totals.revenue DESC) as rank
 
-            FROM (SELECT p.customer_id, sum(p.price) AS revenue
+            FROM (SELECT r.customer_id, sum(r.revenue) AS revenue
+                FROM boutique_coffee.customerdailyrevenue AS r
+                WHERE r.day >= NOW()::date - 30 * x
+                GROUP BY r.customer_id
 
-                FROM (
-                    SELECT purchase.customer_id, sum(buycoffee.purchase_quantity * coffee.price) as price
-                    FROM boutique_coffee.purchase
-                        NATURAL INNER JOIN boutique_coffee.buycoffee
-                        NATURAL INNER JOIN boutique_coffee.coffee
-                        WHERE purchase.purchase_time + 30 * x * INTERVAL '1 day' >= NOW()::date
-                        GROUP BY purchase.purchase_id
-                ) AS p -- holds store and total price for each purchase in past x months
-                GROUP BY p.customer_id
-
-            ) AS totals -- totals holds store id and
+            ) AS totals -- totals holds customer id and its spending in past x months
 
         ) AS top
-        WHERE rank <= k;
+        WHERE rank <= k
+        ORDER BY rank;
+    $$ LANGUAGE sql STABLE;
+
+-- adds a purchase and all of its coffee lines in a single call, returning the new purchase id
+CREATE OR REPLACE FUNCTION boutique_coffee.add_purchase(customer INT, store INT, bought DATE,
+                                                        coffees INT[], quantities INT[], redeems INT[]) RETURNS INT AS $$
+    DECLARE
+        id INT;
+    BEGIN
+        IF coalesce(array_length(coffees, 1), 0) <> coalesce(array_length(quantities, 1), 0)
+            OR coalesce(array_length(coffees, 1), 0) <> coalesce(array_length(redeems, 1), 0) THEN
+            RAISE EXCEPTION USING
+                errcode = '22023',
+                message = 'Add Purchase Failed, array inputs are different sizes';
+        END IF;
+
+        IF bought IS NULL THEN
+            RAISE EXCEPTION USING
+                errcode = '23502',
+                message = 'Add Purchase Failed, purchase time is required';
+        END IF;
+
+        PERFORM boutique_coffee.ensure_purchase_partitions(bought, bought);
+
+        -- lock the customer so the points check in the trigger sees a stable balance
+        PERFORM 1 FROM boutique_coffee.customer AS c WHERE c.customer_id = customer FOR UPDATE;
+        IF NOT FOUND THEN
+            RAISE EXCEPTION USING
+                errcode = '23503',
+                message = FORMAT('Add Purchase Failed, customer %s does not exist', customer);
+        END IF;
+
+        INSERT INTO boutique_coffee.purchase(customer_id, store_id, purchase_time)
+        VALUES (customer, store, bought)
+        RETURNING purchase_id INTO id;
+
+        INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity, purchase_time)
+        SELECT id, line.coffee_id, line.purchase_quantity, line.redeem_quantity, bought
+        FROM unnest(coffees, quantities, redeems) AS line(coffee_id, purchase_quantity, redeem_quantity);
+
+        RETURN id;
     END $$ LANGUAGE plpgsql;
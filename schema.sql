@@ -50,15 +50,23 @@ CREATE TABLE boutique_coffee.Customer
     FOREIGN KEY (MemberLevel_ID) REFERENCES boutique_coffee.MemberLevel
 );
 
+-- Purchase and BuyCoffee are partitioned by month of Purchase_Time, so queries over a time window only scan
+-- the partitions inside it. BuyCoffee carries a copy of its purchase's time to be partitioned the same way.
+-- Partitions are created by ensure_purchase_partitions below; rows outside every month go to the default partition.
+-- A unique key of a partitioned table has to include the partition column, so nothing checks that a Purchase_ID is
+-- unique across months: that rests on the serial sequence alone, and on bulk loads bringing unique ids.
 CREATE TABLE boutique_coffee.Purchase
 (
-    Purchase_ID   SERIAL NOT NULL PRIMARY KEY,
+    Purchase_ID   SERIAL NOT NULL,
     Customer_ID   INT    NOT NULL,
     Store_ID      INT    NOT NULL,
-    Purchase_Time Date,
+    Purchase_Time Date   NOT NULL,
+    PRIMARY KEY (Purchase_ID, Purchase_Time),
     FOREIGN KEY (Customer_ID) REFERENCES boutique_coffee.Customer,
     FOREIGN KEY (Store_ID) REFERENCES boutique_coffee.Store
-);
+) PARTITION BY RANGE (Purchase_Time);
+
+CREATE TABLE boutique_coffee.Purchase_Default PARTITION OF boutique_coffee.Purchase DEFAULT;
 
 CREATE TABLE boutique_coffee.OfferCoffee
 (
@@ -89,11 +97,92 @@ CREATE TABLE boutique_coffee.PromoteFor
 
 CREATE TABLE boutique_coffee.BuyCoffee
 (
-    Purchase_ID       INT NOT NULL,
-    Coffee_ID         INT NOT NULL,
+    Purchase_ID       INT  NOT NULL,
+    Coffee_ID         INT  NOT NULL,
     Purchase_Quantity INT,
     Redeem_Quantity   INT,
-    PRIMARY KEY (Purchase_ID, Coffee_ID),
-    FOREIGN KEY (Purchase_ID) REFERENCES boutique_coffee.Purchase,
+    Purchase_Time     DATE NOT NULL,
+    PRIMARY KEY (Purchase_ID, Coffee_ID, Purchase_Time),
+    FOREIGN KEY (Purchase_ID, Purchase_Time) REFERENCES boutique_coffee.Purchase (Purchase_ID, Purchase_Time),
     FOREIGN KEY (Coffee_ID) REFERENCES boutique_coffee.Coffee
-);
\ No newline at end of file
+) PARTITION BY RANGE (Purchase_Time);
+
+CREATE TABLE boutique_coffee.BuyCoffee_Default PARTITION OF boutique_coffee.BuyCoffee DEFAULT;
+
+-- creates the monthly Purchase and BuyCoffee partitions covering from_day..to_day that do not exist yet,
+-- moving any of their rows out of the default partitions
+CREATE OR REPLACE FUNCTION boutique_coffee.ensure_purchase_partitions(from_day DATE, to_day DATE) RETURNS VOID AS
+$$
+DECLARE
+    month_start DATE := date_trunc('month', from_day)::date;
+    month_end   DATE;
+    suffix      TEXT;
+BEGIN
+    WHILE month_start <= to_day
+        LOOP
+            month_end := (month_start + INTERVAL '1 month')::date;
+            suffix := to_char(month_start, '"y"YYYY"m"MM');
+
+            IF to_regclass('boutique_coffee.purchase_' || suffix) IS NULL THEN
+                BEGIN
+                    IF EXISTS(SELECT 1
+                              FROM boutique_coffee.purchase_default
+                              WHERE purchase_time >= month_start
+                                AND purchase_time < month_end) THEN
+                        -- fill standalone tables first, attaching them once the default partitions no longer
+                        -- hold rows for this month
+                        EXECUTE FORMAT('CREATE TABLE boutique_coffee.purchase_%s (LIKE boutique_coffee.purchase)', suffix);
+                        EXECUTE FORMAT('CREATE TABLE boutique_coffee.buycoffee_%s (LIKE boutique_coffee.buycoffee)', suffix);
+                        EXECUTE FORMAT('INSERT INTO boutique_coffee.purchase_%s SELECT * FROM boutique_coffee.purchase_default '
+                                           'WHERE purchase_time >= %L AND purchase_time < %L', suffix, month_start, month_end);
+                        EXECUTE FORMAT('INSERT INTO boutique_coffee.buycoffee_%s SELECT * FROM boutique_coffee.buycoffee_default '
+                                           'WHERE purchase_time >= %L AND purchase_time < %L', suffix, month_start, month_end);
+                        DELETE FROM boutique_coffee.buycoffee_default
+                        WHERE purchase_time >= month_start AND purchase_time < month_end;
+                        DELETE FROM boutique_coffee.purchase_default
+                        WHERE purchase_time >= month_start AND purchase_time < month_end;
+                        EXECUTE FORMAT('ALTER TABLE boutique_coffee.purchase ATTACH PARTITION boutique_coffee.purchase_%s '
+                                           'FOR VALUES FROM (%L) TO (%L)', suffix, month_start, month_end);
+                        EXECUTE FORMAT('ALTER TABLE boutique_coffee.buycoffee ATTACH PARTITION boutique_coffee.buycoffee_%s '
+                                           'FOR VALUES FROM (%L) TO (%L)', suffix, month_start, month_end);
+                    ELSE
+                        EXECUTE FORMAT('CREATE TABLE boutique_coffee.purchase_%s PARTITION OF boutique_coffee.purchase '
+                                           'FOR VALUES FROM (%L) TO (%L)', suffix, month_start, month_end);
+                        EXECUTE FORMAT('CREATE TABLE boutique_coffee.buycoffee_%s PARTITION OF boutique_coffee.buycoffee '
+                                           'FOR VALUES FROM (%L) TO (%L)', suffix, month_start, month_end);
+                    END IF;
+                EXCEPTION
+                    -- another session created this month's partitions first
+                    WHEN duplicate_table THEN NULL;
+                END;
+            END IF;
+
+            month_start := month_end;
+        END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT boutique_coffee.ensure_purchase_partitions((NOW() - INTERVAL '12 months')::date, (NOW() + INTERVAL '1 month')::date);
+
+-- revenue per store and per customer for each day, maintained by trigger.sql on insert into BuyCoffee
+CREATE TABLE boutique_coffee.StoreDailyRevenue
+(
+    Store_ID INT   NOT NULL,
+    Day      DATE  NOT NULL,
+    Revenue  FLOAT NOT NULL,
+    PRIMARY KEY (Store_ID, Day),
+    FOREIGN KEY (Store_ID) REFERENCES boutique_coffee.Store
+);
+
+CREATE INDEX StoreDailyRevenue_Day ON boutique_coffee.StoreDailyRevenue (Day);
+
+CREATE TABLE boutique_coffee.CustomerDailyRevenue
+(
+    Customer_ID INT   NOT NULL,
+    Day         DATE  NOT NULL,
+    Revenue     FLOAT NOT NULL,
+    PRIMARY KEY (Customer_ID, Day),
+    FOREIGN KEY (Customer_ID) REFERENCES boutique_coffee.Customer
+);
+
+CREATE INDEX CustomerDailyRevenue_Day ON boutique_coffee.CustomerDailyRevenue (Day);
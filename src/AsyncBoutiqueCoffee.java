@@ -0,0 +1,282 @@
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * AsyncTransactionManager over a PooledBoutiqueCoffee. Each call runs on a thread of its own, a virtual thread
+ * when the JVM has them (Java 21 and later) and otherwise one of a fixed number of platform threads, and borrows a
+ * pooled connection for its transaction. With virtual threads a call waiting for the database holds no OS thread,
+ * so thousands can be in flight with the pool bounding how many reach the database at once.
+ */
+class AsyncBoutiqueCoffee implements AsyncTransactionManager, AutoCloseable {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    // a call in flight, and the member running it once it has one; attach, detach and cancel hold the call's
+    // lock, so a cancel only reaches a member while the call still has it and not once it is back in the pool
+    private static class Call {
+        private boolean cancelled;
+        private BoutiqueCoffee member;
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return false if the call was cancelled while waiting for the member
+         */
+        synchronized boolean attach(BoutiqueCoffee member) {
+            if (cancelled) {
+                return false;
+            }
+            this.member = member;
+            return true;
+        }
+
+        synchronized void detach() {
+            if (cancelled) {
+                member.setCancelled(false);
+            }
+            member = null;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (member != null) {
+                member.setCancelled(true);
+            }
+        }
+    }
+
+    private final PooledBoutiqueCoffee db;
+    private final ExecutorService executor;
+    private final int max_in_flight;
+    private final Semaphore in_flight;
+    private final long timeout_millis;
+    private final boolean virtual_threads;
+    private final boolean owner;
+
+    /**
+     * @param db              - runs the calls; its pool size bounds how many reach the database at once
+     * @param maxInFlight     - calls accepted before new ones are rejected
+     * @param timeoutMillis   - calls still running after this long are cancelled, 0 for no timeout
+     * @param platformThreads - threads running the calls when the JVM has no virtual threads
+     */
+    AsyncBoutiqueCoffee(PooledBoutiqueCoffee db, int maxInFlight, long timeoutMillis, int platformThreads) {
+        this.db = db;
+        this.max_in_flight = maxInFlight;
+        this.in_flight = new Semaphore(maxInFlight);
+        this.timeout_millis = timeoutMillis;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtual_threads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformThreadExecutor(platformThreads, maxInFlight);
+        this.owner = true;
+    }
+
+    AsyncBoutiqueCoffee(PooledBoutiqueCoffee db) {
+        this(db, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TIMEOUT_MILLIS, db.getPool().getMaxSize());
+    }
+
+    // a view sharing the executor and in flight limit of another, with its own timeout
+    private AsyncBoutiqueCoffee(AsyncBoutiqueCoffee shared, long timeoutMillis) {
+        this.db = shared.db;
+        this.max_in_flight = shared.max_in_flight;
+        this.in_flight = shared.in_flight;
+        this.timeout_millis = timeoutMillis;
+        this.virtual_threads = shared.virtual_threads;
+        this.executor = shared.executor;
+        this.owner = false;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is only there from Java 21 on, so it is looked up at runtime
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor(int threads, int queued) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(queued, 1)), runnable -> {
+            Thread thread = new Thread(runnable, "async-boutique-coffee-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return calls made through the view time out after timeoutMillis instead, 0 for no timeout
+     */
+    AsyncBoutiqueCoffee withTimeout(long timeoutMillis) {
+        return new AsyncBoutiqueCoffee(this, timeoutMillis);
+    }
+
+    boolean usesVirtualThreads() {
+        return virtual_threads;
+    }
+
+    int getInFlight() {
+        return max_in_flight - in_flight.availablePermits();
+    }
+
+    private <T> CompletableFuture<T> submit(Function<BoutiqueCoffee, T> work, T failed) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        if (!in_flight.tryAcquire()) {
+            future.completeExceptionally(new RejectedExecutionException("Too many calls in flight"));
+            return future;
+        }
+
+        Call call = new Call();
+        try {
+            executor.execute(() -> run(call, future, work, failed));
+        } catch (RejectedExecutionException e) {
+            in_flight.release();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        // a timeout or cancel completes the future first; the statement is then cancelled on the server
+        future.whenComplete((result, error) -> {
+            if (error instanceof TimeoutException || error instanceof CancellationException) {
+                call.cancel();
+            }
+        });
+        if (timeout_millis > 0) {
+            future.orTimeout(timeout_millis, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    private <T> void run(Call call, CompletableFuture<T> future, Function<BoutiqueCoffee, T> work, T failed) {
+        try {
+            if (call.isCancelled()) {
+                return;
+            }
+            T result = db.withMember(member -> {
+                if (!call.attach(member)) {
+                    return failed;
+                }
+                try {
+                    return work.apply(member);
+                } finally {
+                    call.detach();
+                }
+            }, failed);
+            future.complete(result);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            in_flight.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> addStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
+        return submit(member -> member.addStore(name, address, storeType, gpsLong, gpsLat), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addCoffee(String name, String description, int intensity, double price, double rewardPoints, double redeemPoints) {
+        return submit(member -> member.addCoffee(name, description, intensity, price, rewardPoints, redeemPoints), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> offerCoffee(int storeId, int coffeeId) {
+        return submit(member -> member.offerCoffee(storeId, coffeeId), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addPromotion(String name, Date startDate, Date endDate) {
+        return submit(member -> member.addPromotion(name, startDate, endDate), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> promoteFor(int promotionId, int coffeeId) {
+        return submit(member -> member.promoteFor(promotionId, coffeeId), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> hasPromotion(int storeId, int promotionId) {
+        return submit(member -> member.hasPromotion(storeId, promotionId), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addMemberLevel(String name, double boosterFactor) {
+        return submit(member -> member.addMemberLevel(name, boosterFactor), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        return submit(member -> member.addCustomer(firstName, lastName, email, memberLevelId, totalPoints), -1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds, List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        return submit(member -> member.addPurchase(customerId, storeId, purchaseTime, coffeeIds, purchaseQuantities,
+                redeemQuantities), -1);
+    }
+
+    @Override
+    public CompletableFuture<List<PurchaseResult>> addPurchases(List<PurchaseRequest> purchases) {
+        List<PurchaseResult> failed = new ArrayList<PurchaseResult>(purchases.size());
+        for (int i = 0; i < purchases.size(); i++) {
+            failed.add(PurchaseResult.failed("No pooled connection available"));
+        }
+        return submit(member -> member.addPurchases(purchases), failed);
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getCoffees() {
+        return submit(BoutiqueCoffee::getCoffees, new ArrayList<Integer>());
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getCoffeesByKeywords(String keyword1, String keyword2) {
+        return submit(member -> member.getCoffeesByKeywords(keyword1, keyword2), new ArrayList<Integer>());
+    }
+
+    @Override
+    public CompletableFuture<Double> getPointsByCustomerId(int customerId) {
+        return submit(member -> member.getPointsByCustomerId(customerId), -1.0);
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getTopKStoresInPastXMonth(int k, int x) {
+        return submit(member -> member.getTopKStoresInPastXMonth(k, x), new ArrayList<Integer>());
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getTopKCustomersInPastXMonth(int k, int x) {
+        return submit(member -> member.getTopKCustomersInPastXMonth(k, x), new ArrayList<Integer>());
+    }
+
+    /**
+     * Stops accepting calls and waits for those in flight. The PooledBoutiqueCoffee is left open.
+     */
+    @Override
+    public void close() {
+        if (owner) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(timeout_millis > 0 ? timeout_millis : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.sql.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ITransactionManager whose calls return at once with a future of their result.
+ * <p>A future completes with the value the ITransactionManager method would have returned, so failures still
+ * complete it with -1 or an empty list. It completes exceptionally only when the call timed out (TimeoutException),
+ * was rejected because too many calls were in flight (RejectedExecutionException), or was cancelled. Timing out or
+ * cancelling a call also cancels its statement on the server.</p>
+ */
+public interface AsyncTransactionManager {
+    public CompletableFuture<Integer> addStore(String name, String address, String storeType, double gpsLong, double gpsLat);
+
+    public CompletableFuture<Integer> addCoffee(String name, String description, int intensity, double price, double rewardPoints, double redeemPoints);
+
+    public CompletableFuture<Integer> offerCoffee(int storeId, int coffeeId);
+
+    public CompletableFuture<Integer> addPromotion(String name, Date startDate, Date endDate);
+
+    public CompletableFuture<Integer> promoteFor(int promotionId, int coffeeId);
+
+    public CompletableFuture<Integer> hasPromotion(int storeId, int promotionId);
+
+    public CompletableFuture<Integer> addMemberLevel(String name, double boosterFactor);
+
+    public CompletableFuture<Integer> addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints);
+
+    public CompletableFuture<Integer> addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds, List<Integer> purchaseQuantities, List<Integer> redeemQuantities);
+
+    public CompletableFuture<List<PurchaseResult>> addPurchases(List<PurchaseRequest> purchases);
+
+    public CompletableFuture<List<Integer>> getCoffees();
+
+    public CompletableFuture<List<Integer>> getCoffeesByKeywords(String keyword1, String keyword2);
+
+    public CompletableFuture<Double> getPointsByCustomerId(int customerId);
+
+    public CompletableFuture<List<Integer>> getTopKStoresInPastXMonth(int k, int x);
+
+    public CompletableFuture<List<Integer>> getTopKCustomersInPastXMonth(int k, int x);
+}
@@ -8,19 +8,41 @@
  */
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Map;
+import java.util.function.IntConsumer;
 
 public class BCBenchmark {
     private static BoutiqueCoffee db;
     private static PrintWriter totals;
     private static PrintWriter avgs;
+    private static final long DEFAULT_SEED = 1555;
+    // in every run when set, so the runs see the same skewed data instead of only their own rows
+    private static DatasetGenerator dataset;
+    private static BenchmarkResults results;
+    // with a data set, runs start from a clone of a template holding the schema and the loaded rows
+    private static final String SERVER_URL = "jdbc:postgresql://localhost/";
+    private static final String BENCH_DB = "bc_bench";
+    private static TemplateDatabase template;
+    private static String password;
 
     public static void main(String[] args) {
-        String password = "";
+        // BCBenchmark compare <baseline.csv> <current.csv> [threshold %] [metric]: exits with 1 on a regression
+        if (args.length > 0 && args[0].equals("compare")) {
+            System.exit(executeCompare(args));
+        }
+
+        password = "";
     	if (args.length > 0) {
     		password = args[0];
     	}
@@ -46,11 +68,52 @@ public class BCBenchmark {
         }
         
         db.setErrorLogger(s -> System.err.println(s));
+
+        results = new BenchmarkResults();
+        results.putEnvironment("db.url", db.getUrl());
+        for (Map.Entry<String, String> setting : db.getServerSettings().entrySet()) {
+            results.putEnvironment("db." + setting.getKey(), setting.getValue());
+        }
+
+        // BCBenchmark <password> load <threads> <rate> <seconds> <purchases> [mix] [seed] [anchor]
+        if (args.length > 1 && args[1].equals("load")) {
+            executeLoad(password, args);
+            db.close();
+            return;
+        }
+
+        // BCBenchmark <password> dataset <purchases> [seed] [anchor]: every run starts from the same generated data
+        // set, whose latest purchases are on the anchor date, yyyy-mm-dd and today by default
+        if (args.length > 1 && args[1].equals("dataset")) {
+            dataset = DatasetGenerator.ofScale(args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1000000, anchorDate(args, 4));
+            results.putEnvironment("dataset.purchases", "" + dataset.getPurchases());
+            results.putEnvironment("dataset.seed", args.length > 3 ? args[3] : "" + DEFAULT_SEED);
+            results.putEnvironment("dataset.anchor", dataset.getAnchor().toString());
+            if (!prepareTemplate(args.length > 3 ? args[3] : "" + DEFAULT_SEED)) {
+                db.close();
+                System.exit(-1);
+            }
+            // the runs connect to clones of the template instead
+            results.putEnvironment("db.url", template.urlOf(BENCH_DB));
+        }
         
         executeBenchmarks(100);
         executeBenchmarks(1000);
         executeBenchmarks(10000);
-        
+
+        System.out.println("\nstatement cache: " + db.getStatementCacheHits() + " hits, "
+                + db.getStatementCacheMisses() + " misses");
+        db.close();
+
+        try {
+            results.writeJson("results.json");
+            results.writeCsv("results.csv");
+        } catch (IOException e) {
+            System.out.println("Could not write results");
+            System.out.println(e.getMessage());
+        }
+
 
     	if(totals != null) {
     		totals.flush();
@@ -63,155 +126,285 @@ public class BCBenchmark {
     }
     
     public static void executeBenchmarks(int iters) {        
-        db.runSqlScript("schema.sql");
-        db.runSqlScript("trigger.sql");
-        db.runSqlScript("jdbc_procedures.sql");
+        if (template != null) {
+            resetFromTemplate();
+        } else {
+            db.runSqlScript("schema.sql");
+            db.runSqlScript("trigger.sql");
+            db.runSqlScript("jdbc_procedures.sql");
+        }
 
         // Stress Test Methods and Time them.
         
-        totals.write(iters);
-        avgs.write(iters);
-
-        benchmark(BCBenchmark::stressTest_addCoffee, iters, "\n--- Benchmarking Add Coffees ---");
-        benchmark(BCBenchmark::stressTest_addMemberLevel, iters, "\n--- Benchmarking Add Member Levels ---");
-        benchmark(BCBenchmark::stressTest_addStore, iters, "\n--- Benchmarking Add Stores ---");
-        benchmark(BCBenchmark::stressTest_offerCoffee, iters, "\n--- Benchmarking Offer Coffees--- ");
-        benchmark(BCBenchmark::stressTest_addCustomer, iters, "\n--- Benchmarking Add Customers ---");
-        benchmark(BCBenchmark::stressTest_addPromotion, iters, "\n--- Benchmarking Add Promotions ---");
-        benchmark(BCBenchmark::stressTest_promoteFor, iters, "\n--- Benchmarking Promote For ---");
-        benchmark(BCBenchmark::stressTest_hasPromotion, iters, "\n--- Benchmarking Has Promotion ---");
-        benchmark(BCBenchmark::stressTest_addPurchase, iters, "\n--- Benchmarking Add Purchase ---");
-        benchmark(BCBenchmark::stressTest_getCoffees, iters, "\n--- Benchmarking Get Coffees ---");
-        benchmark(BCBenchmark::stressTest_getCoffeesByKeyword, iters, "\n--- Benchmarking Get Coffees By Keyword ---");
-        benchmark(BCBenchmark::stressTest_getPointsByCustomerId, iters, "\n--- Benchmarking Get Points By Customer ID ---");
-        benchmark(BCBenchmark::stressTest_topStores, iters, "\n--- Benchmarking Get Top K Stores In Past X Months ---");
-        benchmark(BCBenchmark::stressTest_topCustomers, iters, "\n--- Benchmarking Get Top K Customers In Past X Months ---");
+        totals.print(iters);
+        avgs.print(iters);
+
+        benchmark("addCoffee", 0, BCBenchmark::stressTest_addCoffee, iters, "\n--- Benchmarking Add Coffees ---");
+        benchmark("addMemberLevel", 1, BCBenchmark::stressTest_addMemberLevel, iters, "\n--- Benchmarking Add Member Levels ---");
+        benchmark("addStore", 0, BCBenchmark::stressTest_addStore, iters, "\n--- Benchmarking Add Stores ---");
+        benchmark("offerCoffee", 1, BCBenchmark::stressTest_offerCoffee, iters, "\n--- Benchmarking Offer Coffees--- ");
+        benchmark("addCustomer", 1, BCBenchmark::stressTest_addCustomer, iters, "\n--- Benchmarking Add Customers ---");
+        benchmark("addPromotion", 1, BCBenchmark::stressTest_addPromotion, iters, "\n--- Benchmarking Add Promotions ---");
+        benchmark("promoteFor", 1, BCBenchmark::stressTest_promoteFor, iters, "\n--- Benchmarking Promote For ---");
+        benchmark("hasPromotion", 1, BCBenchmark::stressTest_hasPromotion, iters, "\n--- Benchmarking Has Promotion ---");
+        benchmark("addPurchase", 1, BCBenchmark::stressTest_addPurchase, iters, "\n--- Benchmarking Add Purchase ---");
+        benchmark("getCoffees", 0, BCBenchmark::stressTest_getCoffees, iters, "\n--- Benchmarking Get Coffees ---");
+        benchmark("getCoffeesByKeywords", 0, BCBenchmark::stressTest_getCoffeesByKeyword, iters, "\n--- Benchmarking Get Coffees By Keyword ---");
+        benchmark("getPointsByCustomerId", 1, BCBenchmark::stressTest_getPointsByCustomerId, iters, "\n--- Benchmarking Get Points By Customer ID ---");
+        benchmark("getTopKStoresInPastXMonth", 1, BCBenchmark::stressTest_topStores, iters, "\n--- Benchmarking Get Top K Stores In Past X Months ---");
+        benchmark("getTopKCustomersInPastXMonth", 1, BCBenchmark::stressTest_topCustomers, iters, "\n--- Benchmarking Get Top K Customers In Past X Months ---");
         
         totals.write("\n");
         avgs.write("\n");
     }
     
-    private static void benchmark(Consumer<Integer> function, int iterations, String message) {
-    	System.out.println(message);
-        double startTime = System.currentTimeMillis();
-        function.accept(iterations);
-        double endTime = System.currentTimeMillis();
-        double calcTime = endTime - startTime;
-        System.out.println("total execution time: " + calcTime + " ms.");
-        totals.print("," + calcTime);
-        double average = calcTime/iterations;
-        avgs.print("," + average);
-        System.out.println("average execution time: " + average + " ms.");
-    }
+    /**
+     * Loads a generated data set, then drives an open loop mix of operations from several threads and
+     * prints latency percentiles per operation.
+     */
+    public static void executeLoad(String password, String[] args) {
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 500;
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : 60;
+        int purchases = args.length > 5 ? Integer.parseInt(args[5]) : 100000;
+        String mix = args.length > 6 ? args[6] : LoadDriver.DEFAULT_MIX;
+        long seed = args.length > 7 ? Long.parseLong(args[7]) : DEFAULT_SEED;
 
-    private static void stressTest_getCoffees(int iter) {
-        for (int i=0; i < iter; i++) {
-        	db.getCoffees();
+        DatasetGenerator generated = DatasetGenerator.ofScale(seed, purchases, anchorDate(args, 8));
+        db.runSqlScript("schema.sql");
+        db.runSqlScript("trigger.sql");
+        db.runSqlScript("jdbc_procedures.sql");
+        if (!loadDataset(generated)) {
+            return;
         }
-    }
 
-    private static void stressTest_getCoffeesByKeyword(int iter) {
-        for (int i=0; i < iter; i++) {
-        	db.getCoffeesByKeywords("Coffee", ""+i);
+        System.out.println("\n--- Load: " + threads + " threads, " + rate + " ops/s for " + seconds + " s over "
+                + purchases + " purchases ---");
+        try (PooledBoutiqueCoffee pool = new PooledBoutiqueCoffee("postgres", password, threads)) {
+            // failures are counted by the driver instead of printed
+            pool.setErrorLogger(s -> { });
+            // -Dbc.slow.ms=<ms> explains a tenth of the reads slower than that and writes the plans to plans.json
+            // -Dbc.read.mode=SERIALIZABLE runs the rankings as they ran before read modes, for comparison
+            String readMode = System.getProperty("bc.read.mode");
+            if (readMode != null) {
+                pool.setReadMode("getTopKStoresInPastXMonth", ReadMode.valueOf(readMode));
+                pool.setReadMode("getTopKCustomersInPastXMonth", ReadMode.valueOf(readMode));
+            }
+            Long slowMillis = Long.getLong("bc.slow.ms");
+            if (slowMillis != null) {
+                pool.enableSlowCallCapture(slowMillis, 0.1, PlanCapture.DEFAULT_CAPACITY);
+            }
+            // also visible over JMX while the load runs, e.g. in jconsole
+            InstrumentedTransactionManager instrumented = new InstrumentedTransactionManager(pool, "load");
+            instrumented.registerMBeans();
+            LoadDriver driver = new LoadDriver(instrumented, threads, rate, generated, mix);
+            // -Dbc.jfr=<file> records the load, with -Dbc.jfr.threshold=<ms> for the slowest events only
+            String recordingFile = System.getProperty("bc.jfr");
+            jdk.jfr.Recording recording = recordingFile == null ? null : BCEvents.startRecording(Paths.get(recordingFile),
+                    Duration.ofMillis(Long.getLong("bc.jfr.threshold", 0)));
+            driver.run(seconds);
+            if (recording != null) {
+                recording.stop();
+                recording.close();
+                System.out.println("Flight recording written to " + recordingFile);
+            }
+            driver.report(System.out, seconds);
+            System.out.println();
+            instrumented.report(System.out);
+            instrumented.unregisterMBeans();
+            System.out.println();
+            pool.getRetryPolicy().report(System.out);
+            if (slowMillis != null) {
+                PlanCapture capture = pool.getPlanCapture();
+                capture.close();
+                capture.dump(Paths.get("plans.json"));
+                System.out.println(capture.getSlowCalls() + " slow reads, " + capture.getPlans().size()
+                        + " plans written to plans.json");
+            }
+        } catch (Exception e) {
+            System.out.println("Load failed");
+            System.out.println(e.getMessage());
         }
     }
 
-    private static void stressTest_getPointsByCustomerId(int iter) {
-        for (int i = 1; i <= iter; i++) {
-            db.getPointsByCustomerId(i);
+    /**
+     * Builds the template database from the scripts and the data set, unless one built from the same scripts and
+     * data set is left over from an earlier run.
+     */
+    private static boolean prepareTemplate(String seed) {
+        template = new TemplateDatabase(SERVER_URL, "postgres", password, BENCH_DB + "_template");
+        try {
+            String key = "purchases=" + dataset.getPurchases() + ",seed=" + seed + ",anchor=" + dataset.getAnchor()
+                    + ",scripts=" + digestOf("schema.sql", "trigger.sql", "jdbc_procedures.sql");
+            double startTime = System.currentTimeMillis();
+            boolean built = template.prepare(key, fresh -> {
+                fresh.setErrorLogger(s -> System.err.println(s));
+                fresh.runSqlScript("schema.sql");
+                fresh.runSqlScript("trigger.sql");
+                fresh.runSqlScript("jdbc_procedures.sql");
+                System.out.println("\n--- Loading " + dataset.getPurchases() + " purchases into the template ---");
+                return fresh.bulkLoad(dataset.sources()) != -1;
+            });
+            System.out.println((built ? "Template built" : "Template reused") + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms.");
+            return true;
+        } catch (Exception e) {
+            System.out.println("Could not prepare the template database");
+            System.out.println(e.getMessage());
+            return false;
         }
     }
 
-    private static void stressTest_addCoffee(int iter) {
-        for (int i = 0; i < iter; i++) {
-            db.addCoffee("Coffee " + i, "Description", 11, 7.79, 80, 100);
+    // SHA-256 of the files' contents, in hex
+    private static String digestOf(String... files) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String file : files) {
+            digest.update(Files.readAllBytes(Paths.get(file)));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
         }
+        return hex.toString();
     }
 
-    private static void stressTest_addCustomer(int iter) {
-        int[] ml = new int[iter + 1];
-        double[] pts = new double[iter + 1];
-        for (int i = 1; i <= iter; i++) {
-            ml[i] = i;
-        }
-        for (int j = 1; j <= iter; j++) {
-            pts[j] = j + 99;
-        }
-        for (int k = 1; k <= iter; k++) {
-            db.addCustomer("FN " + k, "LN " + k, "FN.LN" + k + "@gmail.com", ml[k], pts[k]);
+    // replaces the benchmark database with a fresh clone of the template and reconnects to it
+    private static void resetFromTemplate() {
+        db.close();
+        try {
+            double startTime = System.currentTimeMillis();
+            template.cloneTo(BENCH_DB);
+            db = new BoutiqueCoffee(template.urlOf(BENCH_DB), "postgres", password);
+            db.setErrorLogger(s -> System.err.println(s));
+            System.out.println("\n--- Reset from template in " + (System.currentTimeMillis() - startTime) + " ms ---");
+        } catch (Exception e) {
+            System.out.println("Reset from template failed");
+            System.out.println(e.getMessage());
+            System.exit(-1);
         }
+    }
 
+    // the same seed and anchor give the same data set on any day
+    private static LocalDate anchorDate(String[] args, int index) {
+        return args.length > index ? LocalDate.parse(args[index]) : LocalDate.now();
     }
 
-    private static void stressTest_addMemberLevel(int iter) {
-        for (int i = 1; i <= iter; i++) {
-            db.addMemberLevel("MemberLevel " + i, i * 2);
+    private static boolean loadDataset(DatasetGenerator generated) {
+        System.out.println("\n--- Loading " + generated.getPurchases() + " purchases of " + generated.getCustomers()
+                + " customers at " + generated.getStores() + " stores ---");
+        double startTime = System.currentTimeMillis();
+        long rows = db.bulkLoad(generated.sources());
+        if (rows == -1) {
+            System.out.println("Loading the data set failed");
+            return false;
         }
+        System.out.println(rows + " rows loaded in " + (System.currentTimeMillis() - startTime) + " ms.");
+        return true;
     }
 
-    private static void stressTest_addStore(int iter) {
-        for (int i = 0; i < iter; i++) {
-            db.addStore("Store " + i, "Address Store " + i, "Store Type", i * 4.12, i * 2.25);
+    /**
+     * Compares two results.csv files and returns the exit status: 0 without regressions, 1 with, 2 on bad input.
+     */
+    public static int executeCompare(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: BCBenchmark compare <baseline.csv> <current.csv> [threshold %] [metric]");
+            return 2;
+        }
+        double threshold = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        String metric = args.length > 4 ? args[4] : "mean_ms";
+        try {
+            return BenchmarkResults.compare(args[1], args[2], threshold, metric, System.out) > 0 ? 1 : 0;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not compare results");
+            System.out.println(e.getMessage());
+            return 2;
         }
     }
 
-    private static void stressTest_hasPromotion(int iter) {
-        for (int i = 1; i <= iter; i++) {
-            db.hasPromotion(i, i);
+    // times every call, from index first on
+    private static void benchmark(String operation, int first, IntConsumer call, int iterations, String message) {
+    	System.out.println(message);
+        LatencyHistogram latencies = new LatencyHistogram();
+        long startTime = System.nanoTime();
+        for (int i = first; i < first + iterations; i++) {
+            long callTime = System.nanoTime();
+            call.accept(i);
+            latencies.recordNanos(System.nanoTime() - callTime);
         }
+        double calcTime = (System.nanoTime() - startTime) / 1e6;
+        System.out.println("total execution time: " + calcTime + " ms.");
+        totals.print("," + calcTime);
+        double average = calcTime/iterations;
+        avgs.print("," + average);
+        System.out.println("average execution time: " + average + " ms.");
+        System.out.println("p50/p99 latency: " + latencies.getPercentileMicros(50) / 1000.0 + " / "
+                + latencies.getPercentileMicros(99) / 1000.0 + " ms.");
+        // a run sees the purchases of the data set, or without one about as many rows as it made
+        results.add(operation, dataset != null ? dataset.getPurchases() : iterations, iterations, calcTime, latencies);
+    }
 
+    private static void stressTest_getCoffees(int i) {
+        db.getCoffees();
     }
 
-    private static void stressTest_promoteFor(int iter) {
-        for (int i = 1; i <= iter; i++) {
-            db.promoteFor(i, i);
-        }
+    private static void stressTest_getCoffeesByKeyword(int i) {
+        db.getCoffeesByKeywords("Coffee", ""+i);
     }
 
-    private static void stressTest_addPromotion(int iter) {
-        Date start = Date.valueOf("2019-07-01");
-        Date end = Date.valueOf("2019-07-28");
-        for (int i = 1; i <= iter; i++) {
-            db.addPromotion("Promotion " + i, start, end);
-        }
+    private static void stressTest_getPointsByCustomerId(int i) {
+        db.getPointsByCustomerId(i);
+    }
 
+    private static void stressTest_addCoffee(int i) {
+        db.addCoffee("Coffee " + i, "Description", 11, 7.79, 80, 100);
     }
 
-    private static void stressTest_offerCoffee(int iter) {
-        for (int i = 1; i <= iter; i++) {
-            db.offerCoffee(i, i);
-        }
+    private static void stressTest_addCustomer(int k) {
+        db.addCustomer("FN " + k, "LN " + k, "FN.LN" + k + "@gmail.com", k, k + 99);
+    }
 
+    private static void stressTest_addMemberLevel(int i) {
+        db.addMemberLevel("MemberLevel " + i, i * 2);
     }
 
-    private static void stressTest_addPurchase(int iter) {
+    private static void stressTest_addStore(int i) {
+        db.addStore("Store " + i, "Address Store " + i, "Store Type", i * 4.12, i * 2.25);
+    }
 
-        Date d = Date.valueOf("2019-01-20");
+    private static void stressTest_hasPromotion(int i) {
+        db.hasPromotion(i, i);
+    }
 
-        for (int j = 1; j <= iter; j++) {
-            List<Integer> coffees = new ArrayList<Integer>(1);
-            List<Integer> purchased = new ArrayList<Integer>(1);
-            List<Integer> redeemed = new ArrayList<Integer>(1);
+    private static void stressTest_promoteFor(int i) {
+        db.promoteFor(i, i);
+    }
 
-            purchased.add(j);
-            coffees.add(j);
-            redeemed.add(j / 100);
-            d.setMonth((j % 12) + 1);
-            db.addPurchase(j, j, d, coffees, purchased, redeemed);
-        }
+    private static void stressTest_addPromotion(int i) {
+        db.addPromotion("Promotion " + i, Date.valueOf("2019-07-01"), Date.valueOf("2019-07-28"));
+    }
 
+    private static void stressTest_offerCoffee(int i) {
+        db.offerCoffee(i, i);
     }
 
-    private static void stressTest_topStores(int iter) {
-        for(int i = 1; i <= iter; i++) {
-        	db.getTopKStoresInPastXMonth(i, (i % 12) + 1);
-        }
+    private static void stressTest_addPurchase(int j) {
+        Date d = Date.valueOf("2019-01-20");
+        List<Integer> coffees = new ArrayList<Integer>(1);
+        List<Integer> purchased = new ArrayList<Integer>(1);
+        List<Integer> redeemed = new ArrayList<Integer>(1);
 
+        purchased.add(j);
+        coffees.add(j);
+        redeemed.add(j / 100);
+        d.setMonth((j % 12) + 1);
+        db.addPurchase(j, j, d, coffees, purchased, redeemed);
     }
 
-    private static void stressTest_topCustomers(int iter) {
-        for(int i = 1; i <= iter; i++) {
-        	db.getTopKCustomersInPastXMonth(i, (i % 12) + 1);
-        }
+    private static void stressTest_topStores(int i) {
+        db.getTopKStoresInPastXMonth(i, (i % 12) + 1);
+    }
+
+    private static void stressTest_topCustomers(int i) {
+        db.getTopKCustomersInPastXMonth(i, (i % 12) + 1);
     }
 }
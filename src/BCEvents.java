@@ -0,0 +1,197 @@
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the BoutiqueCoffee operations. Each ITransactionManager call is a bc.Call event,
+ * and the statements, commits, rollbacks and connection acquisitions it makes are events of their own on the same
+ * thread within its duration, so a recording shows where the time of a slow call went.
+ * <p>An event costs a clock read and a check while its type is disabled, which it is unless a recording enables
+ * it. Thresholds are JFR settings like those of the JDK events, set in a .jfc file or through enable().</p>
+ */
+class BCEvents {
+    static final String CALL = "bc.Call";
+    static final String STATEMENT = "bc.Statement";
+    static final String TRANSACTION_END = "bc.TransactionEnd";
+    static final String CONNECTION_ACQUIRE = "bc.ConnectionAcquire";
+    static final String RETRY = "bc.Retry";
+
+    @Name(CALL)
+    @Label("Call")
+    @Description("An ITransactionManager call")
+    @Category("BoutiqueCoffee")
+    @Threshold("10 ms")
+    static class CallEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Customer ID")
+        int customerId = -1;
+
+        @Label("Store ID")
+        int storeId = -1;
+
+        @Label("Result")
+        @Description("ID, row count or points returned, -1 on failure")
+        double result;
+
+        @Label("SQLState")
+        @Description("State of the SQL error the call failed with")
+        String sqlState;
+
+        private transient long failures_before;
+
+        static CallEvent begin(String method) {
+            return begin(method, -1, -1);
+        }
+
+        static CallEvent begin(String method, int customerId, int storeId) {
+            CallEvent event = new CallEvent();
+            if (event.isEnabled()) {
+                event.method = method;
+                event.customerId = customerId;
+                event.storeId = storeId;
+                event.failures_before = BoutiqueCoffee.threadOutcomes()[BoutiqueCoffee.FAILURES];
+                event.begin();
+            }
+            return event;
+        }
+
+        int end(int result) {
+            finish(result);
+            return result;
+        }
+
+        double end(double result) {
+            finish(result);
+            return result;
+        }
+
+        <T> List<T> end(List<T> result) {
+            finish(result.size());
+            return result;
+        }
+
+        private void finish(double value) {
+            end();
+            if (shouldCommit()) {
+                result = value;
+                if (BoutiqueCoffee.threadOutcomes()[BoutiqueCoffee.FAILURES] != failures_before) {
+                    sqlState = BoutiqueCoffee.peekLastSqlState();
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name(STATEMENT)
+    @Label("Statement")
+    @Description("Execution of a prepared statement")
+    @Category("BoutiqueCoffee")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class StatementEvent extends Event {
+        @Label("SQL")
+        @Description("Statement with its parameters")
+        String sql;
+
+        @Label("Rows")
+        @Description("Rows affected, -1 for queries")
+        int rows = -1;
+
+        @Label("Batch Size")
+        int batchSize;
+
+        @Label("SQLState")
+        String sqlState;
+
+        void finish(PreparedStatement stmt) {
+            end();
+            if (shouldCommit()) {
+                sql = stmt.toString();
+                commit();
+            }
+        }
+    }
+
+    @Name(TRANSACTION_END)
+    @Label("Transaction End")
+    @Description("Commit or rollback of a transaction")
+    @Category("BoutiqueCoffee")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class TransactionEndEvent extends Event {
+        @Label("Committed")
+        @Description("False for a rollback")
+        boolean committed;
+
+        @Label("SQLState")
+        String sqlState;
+    }
+
+    @Name(CONNECTION_ACQUIRE)
+    @Label("Connection Acquire")
+    @Description("Borrowing a BoutiqueCoffee from a ConnectionPool")
+    @Category("BoutiqueCoffee")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class ConnectionAcquireEvent extends Event {
+        @Label("Created")
+        @Description("Whether a new connection was opened")
+        boolean created;
+
+        @Label("Timed Out")
+        boolean timedOut;
+    }
+
+    @Name(RETRY)
+    @Label("Retry")
+    @Description("Wait before retrying a transaction that failed on a conflict")
+    @Category("BoutiqueCoffee")
+    @StackTrace(false)
+    static class RetryEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Attempt")
+        @Description("The attempt that failed, 1 for the first")
+        int attempt;
+
+        @Label("SQLState")
+        String sqlState;
+    }
+
+    /**
+     * Enables every BoutiqueCoffee event in a recording.
+     *
+     * @param threshold - calls, statements and commits taking less are not recorded
+     */
+    static void enable(Recording recording, Duration threshold) {
+        recording.enable(CALL).withThreshold(threshold).withStackTrace();
+        recording.enable(STATEMENT).withThreshold(threshold);
+        recording.enable(TRANSACTION_END).withThreshold(threshold);
+        recording.enable(CONNECTION_ACQUIRE).withThreshold(threshold);
+        recording.enable(RETRY);
+    }
+
+    /**
+     * Starts a recording of the BoutiqueCoffee events together with the JDK's default ones, which is written to
+     * destination when it is stopped.
+     */
+    static Recording startRecording(Path destination, Duration threshold) throws Exception {
+        Recording recording = new Recording(jdk.jfr.Configuration.getConfiguration("default"));
+        enable(recording, threshold);
+        recording.setDestination(destination);
+        recording.start();
+        return recording;
+    }
+}
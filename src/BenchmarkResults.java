@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of a BCBenchmark run: one row per operation and data size, plus the JVM and database settings they were
+ * measured under. Written as JSON for tools and as CSV for the compare command, which checks a run against a
+ * stored baseline. Times are in milliseconds.
+ */
+class BenchmarkResults {
+    static final String[] COLUMNS = {"operation", "data_size", "iterations", "total_ms", "mean_ms", "p50_ms",
+            "p90_ms", "p99_ms", "max_ms", "throughput_ops_s"};
+
+    private final Map<String, String> environment = new LinkedHashMap<String, String>();
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+
+    BenchmarkResults() {
+        environment.put("java.version", System.getProperty("java.version"));
+        environment.put("java.vm.name", System.getProperty("java.vm.name"));
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version")
+                + " " + System.getProperty("os.arch"));
+        environment.put("processors", "" + Runtime.getRuntime().availableProcessors());
+        environment.put("max_heap_mb", "" + Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    void putEnvironment(String key, String value) {
+        environment.put(key, value);
+    }
+
+    void putEnvironment(Map<String, String> settings) {
+        environment.putAll(settings);
+    }
+
+    void add(String operation, int dataSize, int iterations, double totalMillis, LatencyHistogram latencies) {
+        rows.add(new Object[]{operation, dataSize, iterations, totalMillis, latencies.getMeanMicros() / 1000,
+                latencies.getPercentileMicros(50) / 1000.0, latencies.getPercentileMicros(90) / 1000.0,
+                latencies.getPercentileMicros(99) / 1000.0, latencies.getMaxMicros() / 1000.0,
+                totalMillis == 0 ? 0 : iterations * 1000 / totalMillis});
+    }
+
+    void writeCsv(String filename) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(filename)))) {
+            for (Map.Entry<String, String> setting : environment.entrySet()) {
+                out.println("# " + setting.getKey() + "=" + setting.getValue());
+            }
+            out.println(String.join(",", COLUMNS));
+            for (Object[] row : rows) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < row.length; i++) {
+                    line.append(i == 0 ? "" : ",").append(format(row[i]));
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    void writeJson(String filename) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(filename)))) {
+            out.println("{");
+            out.println("  \"environment\": {");
+            int n = 0;
+            for (Map.Entry<String, String> setting : environment.entrySet()) {
+                out.println("    " + quote(setting.getKey()) + ": " + quote(setting.getValue())
+                        + (++n < environment.size() ? "," : ""));
+            }
+            out.println("  },");
+            out.println("  \"results\": [");
+            for (int r = 0; r < rows.size(); r++) {
+                StringBuilder line = new StringBuilder("    {");
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    Object value = rows.get(r)[i];
+                    line.append(i == 0 ? "" : ", ").append(quote(COLUMNS[i])).append(": ")
+                            .append(value instanceof String ? quote((String) value) : format(value));
+                }
+                out.println(line.append("}").append(r + 1 < rows.size() ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Compares the operations of a run with those of a baseline, both CSV files written by writeCsv.
+     *
+     * @param thresholdPercent - how much worse than the baseline the metric may get before it is a regression
+     * @param metric           - column compared, e.g. mean_ms or p99_ms; higher is worse
+     * @return the number of regressed operations
+     */
+    static int compare(String baselineFile, String currentFile, double thresholdPercent, String metric,
+                       PrintStream out) throws IOException {
+        Map<String, Double> baseline = readMetric(baselineFile, metric);
+        Map<String, Double> current = readMetric(currentFile, metric);
+
+        int regressions = 0;
+        out.printf("%-45s %12s %12s %9s%n", "operation @ data size", "baseline", "current", "change");
+        for (Map.Entry<String, Double> entry : current.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            if (before == null) {
+                out.printf("%-45s %12s %12.3f %9s%n", entry.getKey(), "-", entry.getValue(), "new");
+                continue;
+            }
+            double change = before == 0 ? 0 : 100 * (entry.getValue() - before) / before;
+            boolean regressed = change > thresholdPercent;
+            if (regressed) {
+                regressions++;
+            }
+            out.printf("%-45s %12.3f %12.3f %+8.1f%%%s%n", entry.getKey(), before, entry.getValue(), change,
+                    regressed ? "  REGRESSION" : "");
+        }
+        for (String missing : baseline.keySet()) {
+            if (!current.containsKey(missing)) {
+                out.printf("%-45s %12.3f %12s %9s%n", missing, baseline.get(missing), "-", "missing");
+            }
+        }
+        out.println(regressions + " regression(s) in " + metric + " beyond " + thresholdPercent + "%");
+        return regressions;
+    }
+
+    // operation @ data size -> value of the metric
+    private static Map<String, Double> readMetric(String filename, String metric) throws IOException {
+        Map<String, Double> values = new LinkedHashMap<String, Double>();
+        int column = -1;
+        for (String line : Files.readAllLines(Paths.get(filename))) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (column == -1) {
+                column = List.of(fields).indexOf(metric);
+                if (column == -1) {
+                    throw new IOException(filename + " has no column " + metric);
+                }
+                continue;
+            }
+            values.put(fields[0] + " @ " + fields[1], Double.parseDouble(fields[column]));
+        }
+        return values;
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.4f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+
+    // a JSON string, also used by PlanCapture.dump
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -1,30 +1,81 @@
 import java.io.PipedReader;
+import java.sql.CallableStatement;
 import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
 class BoutiqueCoffee implements ITransactionManager {
+    public static final int PURCHASE_BATCH_SIZE = 500;
+    // rows per round-trip when loading in memory views through a cursor
+    public static final int LOAD_FETCH_SIZE = 10000;
+
+    // every coffee bought, with its purchase, for the purchase streams
+    private static final String PURCHASE_LINES =
+            "SELECT p.purchase_id, p.customer_id, p.store_id, p.purchase_time, b.coffee_id, b.purchase_quantity, " +
+                    "b.redeem_quantity FROM boutique_coffee.purchase AS p INNER JOIN boutique_coffee.buycoffee AS b " +
+                    "ON b.purchase_id = p.purchase_id AND b.purchase_time = p.purchase_time ";
+
+    // SQLState of the last failure on each thread, for callers that need more than the -1 returned
+    private static final ThreadLocal<String> last_sql_state = new ThreadLocal<String>();
+    // failures and rollbacks so far on each thread, compared before and after a call by InstrumentedTransactionManager
+    private static final ThreadLocal<long[]> thread_outcomes = ThreadLocal.withInitial(() -> new long[2]);
+    static final int FAILURES = 0;
+    static final int ROLLBACKS = 1;
+
+    private final String url;
+    private final Properties props;
     private Connection conn;
+    private StatementCache statements;
     private Consumer<String> error_logger;
+    private TopKRevenueEngine revenue_engine;
+    private CoffeeKeywordIndex keyword_index;
+    private CatalogCache catalog_cache;
+    private CustomerPointsTable points_table;
+    private PlanCapture plan_capture;
+    private boolean owns_plan_capture;
+    // set while executeQuery, executeUpdate or executeBatch runs, for cancel()
+    private volatile PreparedStatement running_statement;
+    // set through setCancelled by a caller that gave up on the operation running here
+    private volatile boolean cancelled;
+    // the session's isolation level as last set through setIsolation, or -1 while it is the server's default
+    private int session_isolation = -1;
+    private RetryPolicy retry_policy = new RetryPolicy();
+    private Map<String, ReadMode> read_modes = defaultReadModes();
 
     public BoutiqueCoffee(String url, String username, String password) throws SQLException, ClassNotFoundException {
         // verify that postgresql driver is available
         Class.forName("org.postgresql.Driver");
 
         // create connection to the database
-        Properties props = new Properties();
+        this.url = url;
+        props = new Properties();
         props.setProperty("user", username);
         props.setProperty("password", password);
+        // send JDBC batches of inserts as multi-row INSERT statements
+        props.setProperty("reWriteBatchedInserts", "true");
         conn = DriverManager.getConnection(url, props);
+        statements = new StatementCache(conn);
 
         // no error logging by default
         setErrorLogger(s -> {
@@ -35,35 +86,358 @@ class BoutiqueCoffee implements ITransactionManager {
         this("jdbc:postgresql://localhost/postgres", username, password);
     }
 
+    public String getUrl() {
+        return url;
+    }
+
     public void setErrorLogger(Consumer<String> error_logger) {
         this.error_logger = error_logger;
     }
 
+    /**
+     * @return the SQLState of the last failed operation on the calling thread, or null if none failed since the
+     * last call; e.g. 40001 for a serialization failure
+     */
+    public static String takeLastSqlState() {
+        String state = last_sql_state.get();
+        last_sql_state.remove();
+        return state;
+    }
+
+    /**
+     * @return the failure and rollback counts of the calling thread, indexed by FAILURES and ROLLBACKS; the array
+     * is updated in place by later calls
+     */
+    static long[] threadOutcomes() {
+        return thread_outcomes.get();
+    }
+
+    /**
+     * @return the SQLState of the last failed operation on the calling thread, without clearing it
+     */
+    static String peekLastSqlState() {
+        return last_sql_state.get();
+    }
+
+    /**
+     * @return the server version and the server settings that most affect performance, or an empty map if the
+     * operation failed
+     */
+    public Map<String, String> getServerSettings() {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        String queryString = "SELECT name, setting FROM pg_settings WHERE name IN ('server_version', 'shared_buffers', " +
+                "'work_mem', 'effective_cache_size', 'max_connections', 'synchronous_commit', 'fsync', 'jit', " +
+                "'default_transaction_isolation') ORDER BY name";
+
+        try {
+            PreparedStatement stmt = statements.prepare(queryString);
+            try (ResultSet values = executeQuery(stmt)) {
+                while (values.next()) {
+                    settings.put(values.getString(1), values.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            logException(e);
+            settings.clear();
+        }
+        return settings;
+    }
+
+    public long getStatementCacheHits() {
+        return statements.getHits();
+    }
+
+    public long getStatementCacheMisses() {
+        return statements.getMisses();
+    }
+
+    public void close() {
+        if (owns_plan_capture) {
+            plan_capture.close();
+        }
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logException(e);
+        }
+    }
+
+    /**
+     * Cancels the statement running on this connection, if any; it then fails with SQLState 57014. Safe to call
+     * from any thread, which is the point: the thread running the statement is blocked in it.
+     */
+    public void cancel() {
+        PreparedStatement stmt = running_statement;
+        if (stmt == null) {
+            return;
+        }
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            logException(e);
+        }
+    }
+
+    /**
+     * While set, every statement on this connection fails with SQLState 57014 instead of running and every commit
+     * rolls back, so an operation given up on between two statements cannot go on to commit. Setting it also
+     * cancels the statement running now.
+     */
+    void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+        if (cancelled) {
+            cancel();
+        }
+    }
+
+    // checked after running_statement is set, so that setCancelled either sees the statement or is seen here
+    private void checkCancelled() throws SQLException {
+        if (cancelled) {
+            throw new SQLException("canceling statement due to user request", "57014");
+        }
+    }
+
+    public boolean isClosed() {
+        try {
+            return conn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Answers the top-k rankings for windows of up to maxMonths months from memory instead of the database.
+     * The engine is loaded from the daily revenue rollups now and kept current by the purchases made here.
+     */
+    public void enableRevenueEngine(int maxMonths) {
+        setRevenueEngine(new TopKRevenueEngine(maxMonths));
+        loadRevenueEngine();
+    }
+
+    // shares one engine between the members of a pool
+    void setRevenueEngine(TopKRevenueEngine revenue_engine) {
+        this.revenue_engine = revenue_engine;
+    }
+
+    /**
+     * Answers getCoffeesByKeywords from an in memory trigram index over the coffee names instead of the database.
+     * The index is loaded now and kept current by addCoffee.
+     */
+    public void enableKeywordIndex() {
+        setKeywordIndex(new CoffeeKeywordIndex());
+        loadKeywordIndex();
+    }
+
+    // shares one index between the members of a pool
+    void setKeywordIndex(CoffeeKeywordIndex keyword_index) {
+        this.keyword_index = keyword_index;
+    }
+
+    /**
+     * Caches coffees, stores, member levels and promotions, reading them through from the database on a miss.
+     *
+     * @param preload - whether to load the whole catalog now, in one snapshot
+     */
+    public void enableCatalogCache(boolean preload) {
+        setCatalogCache(new CatalogCache());
+        if (preload) {
+            loadCatalogCache();
+        }
+    }
+
+    // shares one cache between the members of a pool
+    void setCatalogCache(CatalogCache catalog_cache) {
+        this.catalog_cache = catalog_cache;
+    }
+
+    public CatalogCache getCatalogCache() {
+        return catalog_cache;
+    }
+
+    /**
+     * Answers getPointsByCustomerId from an off heap table of every customer's points instead of the database.
+     * The table is loaded now, reloaded on first use after runSqlScript or bulkLoad, and kept current by addCustomer
+     * and the purchases made here. Purchases are applied with the points trigger's formula when the catalog cache is
+     * enabled, and otherwise drop the customer from the table; customers missing from it are read from the database.
+     */
+    public void enablePointsTable() {
+        setPointsTable(new CustomerPointsTable());
+        loadPointsTable();
+    }
+
+    // shares one table between the members of a pool
+    void setPointsTable(CustomerPointsTable points_table) {
+        this.points_table = points_table;
+    }
+
+    /**
+     * Explains the queries of slow reads on a side connection and keeps the plans, see PlanCapture.
+     *
+     * @param thresholdMillis - reads whose query takes longer are slow
+     * @param sampleRate      - fraction of the slow reads explained, between 0 and 1
+     * @param capacity        - plans kept
+     */
+    public void enableSlowCallCapture(long thresholdMillis, double sampleRate, int capacity) {
+        setPlanCapture(new PlanCapture(() -> DriverManager.getConnection(url, props), thresholdMillis, sampleRate,
+                capacity));
+        owns_plan_capture = true;
+    }
+
+    // shares one capture between the members of a pool
+    void setPlanCapture(PlanCapture plan_capture) {
+        if (owns_plan_capture) {
+            this.plan_capture.close();
+            owns_plan_capture = false;
+        }
+        this.plan_capture = plan_capture;
+    }
+
+    public PlanCapture getPlanCapture() {
+        return plan_capture;
+    }
+
+    // hands a read that took longer than the capture threshold to the plan capture
+    private void offerPlan(String method, long start, String sql, Object... parameters) {
+        PlanCapture capture = plan_capture;
+        if (capture != null) {
+            capture.offer(method, System.nanoTime() - start, sql, parameters);
+        }
+    }
+
+    /**
+     * Sets how transactions failing on a serialization failure or deadlock are retried; null never retries them.
+     */
+    public void setRetryPolicy(RetryPolicy retry_policy) {
+        this.retry_policy = retry_policy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retry_policy;
+    }
+
+    /**
+     * @return the methods that run a multi statement read, each with the read mode it starts with: a SNAPSHOT
+     */
+    static Map<String, ReadMode> defaultReadModes() {
+        Map<String, ReadMode> modes = new ConcurrentHashMap<String, ReadMode>();
+        for (String method : new String[]{"getTopKStoresInPastXMonth", "getTopKCustomersInPastXMonth",
+                "streamCoffees", "streamCustomers", "streamPurchaseHistory", "streamPurchases", "loadRevenueEngine",
+                "loadCatalogCache", "loadPointsTable"}) {
+            modes.put(method, ReadMode.SNAPSHOT);
+        }
+        return modes;
+    }
+
+    /**
+     * Chooses how a multi statement read runs its transaction, e.g. SERIALIZABLE_DEFERRABLE for a ranking that
+     * must be serializable.
+     *
+     * @param method - one of the methods in defaultReadModes()
+     */
+    public void setReadMode(String method, ReadMode mode) {
+        if (!read_modes.containsKey(method) || mode == null) {
+            throw new IllegalArgumentException("No read mode for " + method + ", expected one of " + read_modes.keySet());
+        }
+        read_modes.put(method, mode);
+    }
+
+    public ReadMode getReadMode(String method) {
+        return read_modes.get(method);
+    }
+
+    // shares the read modes of a pool with its members
+    void setReadModes(Map<String, ReadMode> read_modes) {
+        this.read_modes = read_modes;
+    }
+
+    // runs a transaction returning -1 on failure again for as long as it fails on a conflict the policy retries
+    private int withRetry(String method, IntSupplier transaction) {
+        RetryPolicy policy = retry_policy;
+        if (policy == null) {
+            return transaction.getAsInt();
+        }
+        RetryPolicy.MethodRetries retries = policy.getRetries(method);
+        policy.recordCall(retries);
+        long[] outcomes = thread_outcomes.get();
+        for (int attempt = 1; ; attempt++) {
+            long failures = outcomes[FAILURES];
+            int result = transaction.getAsInt();
+            if (result != -1 && attempt > 1) {
+                // the conflicts were resolved, so the call did not fail
+                last_sql_state.remove();
+            }
+            if (result != -1 || outcomes[FAILURES] == failures || !RetryPolicy.isRetryable(last_sql_state.get())) {
+                return result;
+            }
+            if (!backOff(method, attempt, last_sql_state.get(), policy.onConflict(retries, attempt))) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @param millis - wait before the next attempt, or -1 if the policy gives up
+     * @return whether to make the next attempt
+     */
+    private static boolean backOff(String method, int attempt, String sqlState, long millis) {
+        if (millis < 0) {
+            return false;
+        }
+        BCEvents.RetryEvent event = new BCEvents.RetryEvent();
+        event.begin();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        event.method = method;
+        event.attempt = attempt;
+        event.sqlState = sqlState;
+        event.commit();
+        return true;
+    }
+
     // TRANSACTIONS
     @Override
     public int addStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addStore");
+        return event.end(performAddStore(name, address, storeType, gpsLong, gpsLat));
+    }
+
+    private int performAddStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
         int val = -1;
         String insertaddStore = "INSERT INTO boutique_coffee.Store (Name, Address, Store_Type, GPS_Long, GPS_Lat)\n" +
                 "VALUES ( ?, ?, ?, ?, ?)";
         String newField = "store_id";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(insertaddStore, new String[]{newField});
+            statement = statements.prepare(insertaddStore, new String[]{newField});
             statement.setString(1, name);
             statement.setString(2, address);
             statement.setString(3, storeType);
             statement.setDouble(4, gpsLong);
             statement.setDouble(5, gpsLat);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add addStore Failed, no rows affected");
             }
 
-            ResultSet values = statement.getGeneratedKeys();
-            if (values.next()) {
-                val = values.getInt(1);
+            try (ResultSet values = statement.getGeneratedKeys()) {
+                if (values.next()) {
+                    val = values.getInt(1);
+                }
+            }
+
+            if (catalog_cache != null && val != -1) {
+                CatalogCache.Store store = new CatalogCache.Store(val, name, address, storeType, gpsLong, gpsLat);
+                catalog_cache.update(c -> {
+                    c.stores().put(store.id, store);
+                    c.storePromotions().put(store.id, new int[0]);
+                });
             }
 
         } catch (SQLException e) {
@@ -78,12 +452,18 @@ class BoutiqueCoffee implements ITransactionManager {
     @Override
     public int addCoffee(String name, String description, int intensity, double price, double rewardPoints,
                          double redeemPoints) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addCoffee");
+        return event.end(performAddCoffee(name, description, intensity, price, rewardPoints, redeemPoints));
+    }
+
+    private int performAddCoffee(String name, String description, int intensity, double price, double rewardPoints,
+                                 double redeemPoints) {
         int id = -1;
         String queryString = "INSERT INTO boutique_coffee.coffee(name, description, intensity, price, reward_points, redeem_points) VALUES (?, ?, ?, ?, ?, ?)";
         String fieldName = "coffee_id";
         PreparedStatement stmt;
         try {
-            stmt = conn.prepareStatement(queryString, new String[]{fieldName});
+            stmt = statements.prepare(queryString, new String[]{fieldName});
             stmt.setString(1, name);
             stmt.setString(2, description);
             stmt.setInt(3, intensity);
@@ -91,15 +471,27 @@ class BoutiqueCoffee implements ITransactionManager {
             stmt.setDouble(5, rewardPoints);
             stmt.setDouble(6, redeemPoints);
 
-            int rows = stmt.executeUpdate();
+            int rows = executeUpdate(stmt);
 
             if (rows == 0) {
                 throw new SQLException("Add Coffee Failed, no rows affected");
             }
 
-            ResultSet values = stmt.getGeneratedKeys();
-            if (values.next()) {
-                id = values.getInt(1);
+            try (ResultSet values = stmt.getGeneratedKeys()) {
+                if (values.next()) {
+                    id = values.getInt(1);
+                }
+            }
+
+            if (revenue_engine != null && id != -1) {
+                revenue_engine.setCoffeePrice(id, price);
+            }
+            if (keyword_index != null && id != -1) {
+                keyword_index.add(id, name);
+            }
+            if (catalog_cache != null && id != -1) {
+                CatalogCache.Coffee coffee = new CatalogCache.Coffee(id, name, price, rewardPoints, redeemPoints);
+                catalog_cache.update(c -> c.coffees().put(coffee.id, coffee));
             }
         } catch (SQLException e) {
             logException(e);
@@ -113,14 +505,19 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int offerCoffee(int storeId, int coffeeId) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("offerCoffee", -1, storeId);
+        return event.end(performOfferCoffee(storeId, coffeeId));
+    }
+
+    private int performOfferCoffee(int storeId, int coffeeId) {
         String insertOfferCoffee = "INSERT INTO boutique_coffee.offercoffee(store_Id, coffee_Id) VALUES(?, ?)";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(insertOfferCoffee);
+            statement = statements.prepare(insertOfferCoffee);
             statement.setInt(1, storeId);
             statement.setInt(2, coffeeId);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add offerCoffee Failed, no rows affected");
@@ -138,25 +535,39 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int addPromotion(String name, Date startDate, Date endDate) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addPromotion");
+        return event.end(performAddPromotion(name, startDate, endDate));
+    }
+
+    private int performAddPromotion(String name, Date startDate, Date endDate) {
         int id = -1;
         String queryString = "INSERT INTO boutique_coffee.promotion(name, start_date, end_date) VALUES (?, ?, ?)";
         String fieldName = "promotion_id";
         PreparedStatement stmt;
         try {
-            stmt = conn.prepareStatement(queryString, new String[]{fieldName});
+            stmt = statements.prepare(queryString, new String[]{fieldName});
             stmt.setString(1, name);
             stmt.setDate(2, startDate);
             stmt.setDate(3, endDate);
 
-            int rows = stmt.executeUpdate();
+            int rows = executeUpdate(stmt);
 
             if (rows == 0) {
                 throw new SQLException("Add Promotion Failed, no rows affected");
             }
 
-            ResultSet values = stmt.getGeneratedKeys();
-            if (values.next()) {
-                id = values.getInt(1);
+            try (ResultSet values = stmt.getGeneratedKeys()) {
+                if (values.next()) {
+                    id = values.getInt(1);
+                }
+            }
+
+            if (catalog_cache != null && id != -1) {
+                CatalogCache.Promotion promotion = new CatalogCache.Promotion(id, name, startDate, endDate);
+                catalog_cache.update(c -> {
+                    c.promotions().put(promotion.id, promotion);
+                    c.promotionCoffees().put(promotion.id, new int[0]);
+                });
             }
         } catch (SQLException e) {
             logException(e);
@@ -170,21 +581,29 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int promoteFor(int promotionId, int coffeeId) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("promoteFor");
+        return event.end(performPromoteFor(promotionId, coffeeId));
+    }
+
+    private int performPromoteFor(int promotionId, int coffeeId) {
         String insertPromoteFor = "INSERT INTO boutique_coffee.promotefor(promotion_Id, coffee_Id) VALUES(?, ?)";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(insertPromoteFor);
+            statement = statements.prepare(insertPromoteFor);
             statement.setInt(1, promotionId);
             statement.setInt(2, coffeeId);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add Promotion For Failed, no rows affected");
-            } else {
-                return 1;
             }
 
+            if (catalog_cache != null) {
+                catalog_cache.update(c -> CatalogCache.Builder.addTo(c.promotionCoffees(), promotionId, coffeeId));
+            }
+            return 1;
+
         } catch (SQLException e) {
             logException(e);
             return -1;
@@ -195,21 +614,29 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int hasPromotion(int storeId, int promotionId) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("hasPromotion", -1, storeId);
+        return event.end(performHasPromotion(storeId, promotionId));
+    }
+
+    private int performHasPromotion(int storeId, int promotionId) {
         String inserthasPromotion = "INSERT INTO boutique_coffee.haspromotion(store_id, promotion_id) VALUES (?, ?)";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(inserthasPromotion);
+            statement = statements.prepare(inserthasPromotion);
             statement.setInt(1, storeId);
             statement.setInt(2, promotionId);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add hasPromotion failed, no rows affected");
-            } else {
-                return 1;
             }
 
+            if (catalog_cache != null) {
+                catalog_cache.update(c -> CatalogCache.Builder.addTo(c.storePromotions(), storeId, promotionId));
+            }
+            return 1;
+
         } catch (SQLException e) {
             logException(e);
             return -1;
@@ -220,24 +647,35 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int addMemberLevel(String name, double boosterFactor) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addMemberLevel");
+        return event.end(performAddMemberLevel(name, boosterFactor));
+    }
+
+    private int performAddMemberLevel(String name, double boosterFactor) {
         int val = -1;
         String insertaddMemberLevel = "INSERT INTO boutique_coffee.memberlevel(name, booster_factor) VALUES (?, ?)";
         String newField = "memberlevel_id";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(insertaddMemberLevel, new String[]{newField});
+            statement = statements.prepare(insertaddMemberLevel, new String[]{newField});
             statement.setString(1, name);
             statement.setDouble(2, boosterFactor);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add Memberlevel Failed, no rows affected");
             }
 
-            ResultSet values = statement.getGeneratedKeys();
-            if (values.next()) {
-                val = values.getInt(1);
+            try (ResultSet values = statement.getGeneratedKeys()) {
+                if (values.next()) {
+                    val = values.getInt(1);
+                }
+            }
+
+            if (catalog_cache != null && val != -1) {
+                CatalogCache.MemberLevel level = new CatalogCache.MemberLevel(val, name, boosterFactor);
+                catalog_cache.update(c -> c.memberLevels().put(level.id, level));
             }
 
         } catch (SQLException e) {
@@ -251,28 +689,38 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public int addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addCustomer");
+        return event.end(performAddCustomer(firstName, lastName, email, memberLevelId, totalPoints));
+    }
+
+    private int performAddCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
         int val = -1;
         String insertaddCustomer = "INSERT INTO boutique_coffee.customer(first_name, last_name, email, memberlevel_id, total_points)\n" +
                 "VALUES (?, ?, ?, ?, ?)";
         String newField = "customer_id";
         PreparedStatement statement;
         try {
-            statement = conn.prepareStatement(insertaddCustomer, new String[]{newField});
+            statement = statements.prepare(insertaddCustomer, new String[]{newField});
             statement.setString(1, firstName);
             statement.setString(2, lastName);
             statement.setString(3, email);
             statement.setInt(4, memberLevelId);
             statement.setDouble(5, totalPoints);
 
-            int affectedRows = statement.executeUpdate();
+            int affectedRows = executeUpdate(statement);
 
             if (affectedRows == 0) {
                 throw new SQLException("Add addCustomer Failed, no rows affected");
             }
 
-            ResultSet values = statement.getGeneratedKeys();
-            if (values.next()) {
-                val = values.getInt(1);
+            try (ResultSet values = statement.getGeneratedKeys()) {
+                if (values.next()) {
+                    val = values.getInt(1);
+                }
+            }
+
+            if (points_table != null && val != -1) {
+                points_table.put(val, memberLevelId, totalPoints);
             }
 
         } catch (SQLException e) {
@@ -287,125 +735,396 @@ class BoutiqueCoffee implements ITransactionManager {
     @Override
     public int addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
                            List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addPurchase", customerId, storeId);
+        return event.end(withRetry("addPurchase", () -> performAddPurchase(customerId, storeId, purchaseTime, coffeeIds,
+                purchaseQuantities, redeemQuantities)));
+    }
 
-        beginTransaction(Connection.TRANSACTION_SERIALIZABLE);
+    private int performAddPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                                   List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
         int id = -1;
-        String purchaseString = "INSERT INTO boutique_coffee.purchase(customer_id, store_id, purchase_time) VALUES (?, ?, ?)";
-        String coffeeString = "INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity) VALUES (?, ?, ?, ?)";
-        String fieldName = "purchase_id";
-        PreparedStatement stmt;
+        // a single statement, so autocommit makes the whole purchase atomic in one round-trip
+        // read committed is enough: add_purchase locks the customer before the trigger checks the points, so
+        // concurrent purchases of a customer wait for each other instead of failing with 40001 as under serializable
+        String queryString = "SELECT boutique_coffee.add_purchase(?, ?, ?, ?, ?, ?), txid_current()";
         try {
-            stmt = conn.prepareStatement(purchaseString, new String[]{fieldName});
+            if (coffeeIds.size() != purchaseQuantities.size() || coffeeIds.size() != redeemQuantities.size()) {
+                throw new SQLException("Add Purchase Failed, array inputs are different sizes");
+            }
+
+            setIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            PreparedStatement stmt = statements.prepare(queryString);
             stmt.setInt(1, customerId);
             stmt.setInt(2, storeId);
             stmt.setDate(3, purchaseTime);
-
-            int rows = stmt.executeUpdate();
-
-            if (rows == 0) {
-                throw new SQLException("Add Purchase Failed, no rows affected in purchase table");
+            stmt.setArray(4, conn.createArrayOf("integer", coffeeIds.toArray()));
+            stmt.setArray(5, conn.createArrayOf("integer", purchaseQuantities.toArray()));
+            stmt.setArray(6, conn.createArrayOf("integer", redeemQuantities.toArray()));
+
+            long txid = 0;
+            try (ResultSet values = executeQuery(stmt)) {
+                if (values.next()) {
+                    id = values.getInt(1);
+                    txid = values.getLong(2);
+                }
             }
 
-            ResultSet values = stmt.getGeneratedKeys();
-            if (values.next()) {
-                id = values.getInt(1);
+            if (id != -1) {
+                recordPurchase(txid, new PurchaseRequest(customerId, storeId, purchaseTime, coffeeIds,
+                        purchaseQuantities, redeemQuantities));
             }
+        } catch (SQLException e) {
+            logException(e);
+            id = -1;
+        } catch (Exception e) {
+            id = -1;
+        }
 
-            if (coffeeIds.size() != purchaseQuantities.size() || coffeeIds.size() != purchaseQuantities.size()) {
-                throw new SQLException("Add Purchase Failed, array inputs are different sizes");
+        return id;
+    }
+
+    @Override
+    public List<PurchaseResult> addPurchases(List<PurchaseRequest> purchases) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("addPurchases");
+        return event.end(performAddPurchases(purchases));
+    }
+
+    private List<PurchaseResult> performAddPurchases(List<PurchaseRequest> purchases) {
+        List<PurchaseResult> results = new ArrayList<PurchaseResult>(purchases.size());
+        for (int from = 0; from < purchases.size(); from += PURCHASE_BATCH_SIZE) {
+            int to = Math.min(purchases.size(), from + PURCHASE_BATCH_SIZE);
+            results.addAll(addPurchaseBatch(purchases.subList(from, to)));
+        }
+        return results;
+    }
+
+    /**
+     * Feeds a committed purchase to the in memory views.
+     *
+     * @param txid - the transaction that added it, so that a view loaded from a snapshot that already saw the
+     *             purchase does not count it twice
+     */
+    private void recordPurchase(long txid, PurchaseRequest purchase) {
+        if (revenue_engine != null) {
+            revenue_engine.recordPurchase(txid, purchase.getCustomerId(), purchase.getStoreId(),
+                    purchase.getPurchaseTime(), purchase.getCoffeeIds(), purchase.getPurchaseQuantities());
+        }
+        if (points_table != null) {
+            recordPoints(txid, purchase.getCustomerId(), purchase.getStoreId(), purchase.getPurchaseTime(),
+                    purchase.getCoffeeIds(), purchase.getPurchaseQuantities(), purchase.getRedeemQuantities());
+        }
+    }
+
+    // applies the points trigger's formula, rounding each cast to INT the way PostgreSQL does
+    private void recordPoints(long txid, int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                              List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        int memberLevelId = points_table.getMemberLevel(customerId);
+        if (memberLevelId == -1) {
+            return;
+        }
+        CatalogCache.MemberLevel level = catalog_cache == null ? null : getCatalogMemberLevel(memberLevelId);
+        if (level == null) {
+            points_table.remove(customerId);
+            return;
+        }
+
+        long change = 0;
+        for (int i = 0; i < coffeeIds.size(); i++) {
+            CatalogCache.Coffee coffee = getCatalogCoffee(coffeeIds.get(i));
+            if (coffee == null) {
+                points_table.remove(customerId);
+                return;
             }
+            int promotion = isPromoted(storeId, coffee.id, purchaseTime) ? 2 : 1;
+            change += (long) Math.rint(purchaseQuantities.get(i) * (int) Math.rint(coffee.rewardPoints)
+                    * level.boosterFactor * promotion)
+                    - (long) redeemQuantities.get(i) * (int) Math.rint(coffee.redeemPoints);
+        }
+        points_table.addPoints(txid, customerId, change);
+    }
 
-            for (int i = 0; i < coffeeIds.size(); i++) {
-                stmt = conn.prepareStatement(coffeeString);
-                stmt.setInt(1, id);
-                stmt.setInt(2, coffeeIds.get(i));
-                stmt.setInt(3, purchaseQuantities.get(i));
-                stmt.setInt(4, redeemQuantities.get(i));
-                rows = stmt.executeUpdate();
+    // adds up to PURCHASE_BATCH_SIZE purchases in one transaction
+    private List<PurchaseResult> addPurchaseBatch(List<PurchaseRequest> batch) {
+        PurchaseResult[] results = new PurchaseResult[batch.size()];
+        int[] ids = new int[batch.size()];
+        int valid = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            String reason = batch.get(i) == null ? "Add Purchase Failed, missing purchase" : batch.get(i).validate();
+            if (reason != null) {
+                results[i] = PurchaseResult.failed(reason);
+            } else {
+                valid++;
+            }
+        }
+        if (valid == 0) {
+            return Arrays.asList(results);
+        }
 
-                if (rows == 0) {
-                    throw new SQLException("Add Purchase Failed, no rows affected in buyCoffee table");
+        RetryPolicy policy = retry_policy;
+        RetryPolicy.MethodRetries retries = policy == null ? null : policy.getRetries("addPurchases");
+        if (policy != null) {
+            policy.recordCall(retries);
+        }
+        for (int attempt = 1; ; attempt++) {
+            beginTransaction(Connection.TRANSACTION_SERIALIZABLE);
+            try {
+                long txid = reservePurchaseIds(batch, results, ids, valid);
+                insertPurchaseBatch(batch, results, ids);
+                checkCancelled();
+                conn.commit();
+                conn.setAutoCommit(true);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (results[i] == null) {
+                        results[i] = PurchaseResult.added(ids[i]);
+                        recordPurchase(txid, batch.get(i));
+                    }
+                }
+                return Arrays.asList(results);
+            } catch (SQLException e) {
+                rollback();
+                // a conflict says nothing about the purchases, so the batch is tried again as a whole
+                if (policy == null || !RetryPolicy.isRetryable(e)
+                        || !backOff("addPurchases", attempt, e.getSQLState(), policy.onConflict(retries, attempt))) {
+                    break;
                 }
             }
+        }
+        // some purchase in the batch failed; retry them one at a time to find out which
 
-
+        beginTransaction(Connection.TRANSACTION_SERIALIZABLE);
+        try {
+            // the last attempt may have failed before reserving ids, and partitions it created were rolled back
+            long txid = reservePurchaseIds(batch, results, ids, valid);
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    insertPurchaseBatch(batch.subList(i, i + 1), new PurchaseResult[1], new int[]{ids[i]});
+                    conn.releaseSavepoint(savepoint);
+                    results[i] = PurchaseResult.added(ids[i]);
+                } catch (SQLException e) {
+                    conn.rollback(savepoint);
+                    results[i] = PurchaseResult.failed(failureReason(e));
+                }
+            }
+            checkCancelled();
+            conn.commit();
+            conn.setAutoCommit(true);
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i].isSuccess()) {
+                    recordPurchase(txid, batch.get(i));
+                }
+            }
         } catch (SQLException e) {
             logException(e);
             rollback();
-            return -1;
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] == null || results[i].isSuccess()) {
+                    results[i] = PurchaseResult.failed(failureReason(e));
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
 
-        } catch (Exception e) {
-            rollback();
-            return -1;
+    // fetches purchase ids for the valid requests from the purchase sequence in one round-trip, making sure the
+    // monthly partitions for the batch exist along the way; returns the id of the transaction
+    private long reservePurchaseIds(List<PurchaseRequest> batch, PurchaseResult[] results, int[] ids, int count)
+            throws SQLException {
+        Date first = null;
+        Date last = null;
+        for (int i = 0; i < batch.size(); i++) {
+            if (results[i] == null) {
+                Date time = batch.get(i).getPurchaseTime();
+                first = first == null || time.before(first) ? time : first;
+                last = last == null || time.after(last) ? time : last;
+            }
         }
 
-        commit();
-        return id;
+        String queryString = "SELECT nextval(pg_get_serial_sequence('boutique_coffee.purchase', 'purchase_id')), " +
+                "txid_current() FROM boutique_coffee.ensure_purchase_partitions(?, ?), generate_series(1, ?)";
+        PreparedStatement stmt = statements.prepare(queryString);
+        stmt.setDate(1, first);
+        stmt.setDate(2, last);
+        stmt.setInt(3, count);
+        long txid = 0;
+        try (ResultSet values = executeQuery(stmt)) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                if (!values.next()) {
+                    throw new SQLException("Add Purchases Failed, could not reserve purchase ids");
+                }
+                ids[i] = values.getInt(1);
+                txid = values.getLong(2);
+            }
+        }
+        return txid;
+    }
+
+    // inserts every request without a result yet as two JDBC batches, one per table
+    private void insertPurchaseBatch(List<PurchaseRequest> batch, PurchaseResult[] results, int[] ids)
+            throws SQLException {
+        String purchaseString = "INSERT INTO boutique_coffee.purchase(purchase_id, customer_id, store_id, purchase_time) VALUES (?, ?, ?, ?)";
+        String coffeeString = "INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity, purchase_time) VALUES (?, ?, ?, ?, ?)";
+
+        PreparedStatement purchaseStmt = statements.prepare(purchaseString);
+        PreparedStatement coffeeStmt = statements.prepare(coffeeString);
+        for (int i = 0; i < batch.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            PurchaseRequest purchase = batch.get(i);
+            purchaseStmt.setInt(1, ids[i]);
+            purchaseStmt.setInt(2, purchase.getCustomerId());
+            purchaseStmt.setInt(3, purchase.getStoreId());
+            purchaseStmt.setDate(4, purchase.getPurchaseTime());
+            purchaseStmt.addBatch();
+
+            for (int j = 0; j < purchase.getCoffeeIds().size(); j++) {
+                coffeeStmt.setInt(1, ids[i]);
+                coffeeStmt.setInt(2, purchase.getCoffeeIds().get(j));
+                coffeeStmt.setInt(3, purchase.getPurchaseQuantities().get(j));
+                coffeeStmt.setInt(4, purchase.getRedeemQuantities().get(j));
+                coffeeStmt.setDate(5, purchase.getPurchaseTime());
+                coffeeStmt.addBatch();
+            }
+        }
+
+        try {
+            executeBatch(purchaseStmt);
+            executeBatch(coffeeStmt);
+        } finally {
+            purchaseStmt.clearBatch();
+            coffeeStmt.clearBatch();
+        }
+    }
+
+    private static String failureReason(SQLException e) {
+        // batch failures wrap the server error as the next exception
+        SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+        return cause.getSQLState() == null ? cause.getMessage() : cause.getSQLState() + ": " + cause.getMessage();
     }
 
     @Override
     public List<Integer> getCoffees() {
-        LinkedList<Integer> results = new LinkedList<Integer>();
+        IntList ids = new IntList();
+        return toList(getCoffees(ids), ids);
+    }
+
+    @Override
+    public int getCoffees(IntConsumer sink) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("getCoffees");
+        return event.end(performGetCoffees(sink));
+    }
+
+    private int performGetCoffees(IntConsumer sink) {
+        int count = 0;
         String queryString = "SELECT coffee_id FROM boutique_coffee.coffee";
 
         try {
-            PreparedStatement stmt = conn.prepareStatement(queryString);
-            ResultSet values = stmt.executeQuery();
-
-            while (values.next()) {
-                int id = values.getInt(1);
-                results.add(id);
+            long start = System.nanoTime();
+            PreparedStatement stmt = statements.prepare(queryString);
+            try (ResultSet values = executeQuery(stmt)) {
+                while (values.next()) {
+                    sink.accept(values.getInt(1));
+                    count++;
+                }
             }
+            offerPlan("getCoffees", start, queryString);
         } catch (SQLException e) {
             logException(e);
-            results = new LinkedList<Integer>();
+            count = -1;
         } catch (Exception e) {
-            results = new LinkedList<Integer>();
+            count = -1;
         }
 
-        return results;
+        return count;
     }
 
     @Override
     public List<Integer> getCoffeesByKeywords(String keyword1, String keyword2) {
-        LinkedList<Integer> results = new LinkedList<Integer>();
+        IntList ids = new IntList();
+        return toList(getCoffeesByKeywords(keyword1, keyword2, ids), ids);
+    }
+
+    @Override
+    public int getCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("getCoffeesByKeywords");
+        return event.end(performGetCoffeesByKeywords(keyword1, keyword2, sink));
+    }
+
+    private int performGetCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink) {
+        CoffeeKeywordIndex index = keyword_index;
+        if (index != null && (index.isLoaded() || loadKeywordIndex())) {
+            // same strings as the patterns below, down to a null keyword becoming "null"
+            int found = index.search("" + keyword1, "" + keyword2, sink);
+            if (found != -1) {
+                return found;
+            }
+        }
+
+        int count = 0;
         String queryString = "SELECT coffee_id FROM boutique_coffee.coffee WHERE name LIKE ? AND name LIKE ?";
 
         try {
-            PreparedStatement stmt = conn.prepareStatement(queryString);
+            long start = System.nanoTime();
+            PreparedStatement stmt = statements.prepare(queryString);
             stmt.setString(1, "%" + keyword1 + "%");
             stmt.setString(2, "%" + keyword2 + "%");
-            ResultSet values = stmt.executeQuery();
-
-            while (values.next()) {
-                int id = values.getInt(1);
-                results.add(id);
+            try (ResultSet values = executeQuery(stmt)) {
+                while (values.next()) {
+                    sink.accept(values.getInt(1));
+                    count++;
+                }
             }
+            offerPlan("getCoffeesByKeywords", start, queryString, "%" + keyword1 + "%", "%" + keyword2 + "%");
         } catch (SQLException e) {
             logException(e);
-            results = new LinkedList<Integer>();
+            count = -1;
         } catch (Exception e) {
-            results = new LinkedList<Integer>();
+            count = -1;
         }
 
-        return results;
+        return count;
     }
 
     @Override
     public double getPointsByCustomerId(int customerId) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("getPointsByCustomerId", customerId, -1);
+        return event.end(performGetPointsByCustomerId(customerId));
+    }
+
+    private double performGetPointsByCustomerId(int customerId) {
+        CustomerPointsTable table = points_table;
+        // reloaded after invalidateViews cleared it; if that fails the points come from the database
+        if (table != null && (table.isLoaded() || loadPointsTable())) {
+            double cached = table.getPoints(customerId);
+            if (!Double.isNaN(cached)) {
+                return cached;
+            }
+        }
+
         double pts;
+        // a miss is not put in the table: a purchase of the customer committed after this read would have been
+        // skipped by recordPoints while the customer was missing, leaving the cached points stale for good
         String queryString = "SELECT total_points FROM boutique_coffee.customer WHERE customer_id = ?";
 
         try {
-            PreparedStatement stmt = conn.prepareStatement(queryString);
+            long start = System.nanoTime();
+            PreparedStatement stmt = statements.prepare(queryString);
             stmt.setInt(1, customerId);
-            ResultSet values = stmt.executeQuery();
-
-            if (values.next()) {
-                pts = values.getDouble(1);
-            } else {
-                pts = -1;
+            try (ResultSet values = executeQuery(stmt)) {
+                if (values.next()) {
+                    pts = values.getDouble(1);
+                } else {
+                    pts = -1;
+                }
             }
+            offerPlan("getPointsByCustomerId", start, queryString, customerId);
         } catch (SQLException e) {
             logException(e);
             pts = -1;
@@ -418,65 +1137,556 @@ class BoutiqueCoffee implements ITransactionManager {
 
     @Override
     public List<Integer> getTopKStoresInPastXMonth(int k, int x) {
-        LinkedList<Integer> results = new LinkedList<Integer>();
-        String queryString = "SELECT store_id FROM boutique_coffee.top_stores(?, ?)";
+        IntList ids = new IntList();
+        return toList(getTopKStoresInPastXMonth(k, x, ids), ids);
+    }
 
-        beginTransaction(Connection.TRANSACTION_SERIALIZABLE);
+    @Override
+    public int getTopKStoresInPastXMonth(int k, int x, IntConsumer sink) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("getTopKStoresInPastXMonth");
+        return event.end(performGetTopKStoresInPastXMonth(k, x, sink));
+    }
+
+    private int performGetTopKStoresInPastXMonth(int k, int x, IntConsumer sink) {
+        int ranked = rankFromEngine(true, k, x, sink);
+        if (ranked != -1) {
+            return ranked;
+        }
+        return withRetry("getTopKStoresInPastXMonth", () -> rankFromDatabase("getTopKStoresInPastXMonth",
+                "SELECT store_id FROM boutique_coffee.top_stores(?, ?)", k, x, sink));
+    }
+
+    @Override
+    public List<Integer> getTopKCustomersInPastXMonth(int k, int x) {
+        IntList ids = new IntList();
+        return toList(getTopKCustomersInPastXMonth(k, x, ids), ids);
+    }
+
+    @Override
+    public int getTopKCustomersInPastXMonth(int k, int x, IntConsumer sink) {
+        BCEvents.CallEvent event = BCEvents.CallEvent.begin("getTopKCustomersInPastXMonth");
+        return event.end(performGetTopKCustomersInPastXMonth(k, x, sink));
+    }
+
+    private int performGetTopKCustomersInPastXMonth(int k, int x, IntConsumer sink) {
+        int ranked = rankFromEngine(false, k, x, sink);
+        if (ranked != -1) {
+            return ranked;
+        }
+        return withRetry("getTopKCustomersInPastXMonth", () -> rankFromDatabase("getTopKCustomersInPastXMonth",
+                "SELECT customer_id FROM boutique_coffee.top_customers(?, ?)", k, x, sink));
+    }
+
+    // -1 if the ranking has to come from the database
+    private int rankFromEngine(boolean stores, int k, int x, IntConsumer sink) {
+        TopKRevenueEngine engine = revenue_engine;
+        if (engine == null || x > engine.getMaxMonths()) {
+            return -1;
+        }
+        if (!engine.isLoaded() && !loadRevenueEngine()) {
+            return -1;
+        }
+        return stores ? engine.topKStores(k, x, sink) : engine.topKCustomers(k, x, sink);
+    }
+
+    private int rankFromDatabase(String method, String queryString, int k, int x, IntConsumer sink) {
+        // held back until the commit succeeds, so a retried ranking is not fed to the sink twice
+        IntList ranked = new IntList();
+
+        long start = System.nanoTime();
+        beginRead(method);
 
         try {
-            PreparedStatement stmt = conn.prepareStatement(queryString);
+            PreparedStatement stmt = statements.prepare(queryString);
             stmt.setInt(1, k);
             stmt.setInt(2, x);
-            ResultSet values = stmt.executeQuery();
-
-            while (values.next()) {
-                int id = values.getInt(1);
-                results.add(id);
+            try (ResultSet values = executeQuery(stmt)) {
+                while (values.next()) {
+                    ranked.add(values.getInt(1));
+                }
             }
         } catch (SQLException e) {
             logException(e);
             rollback();
-            return new LinkedList<Integer>();
+            return -1;
         } catch (Exception e) {
             rollback();
-            return new LinkedList<Integer>();
+            return -1;
         }
 
-        commit();
-        return results;
+        // a serializable read mode may still fail on a conflict when it commits
+        if (!commit()) {
+            return -1;
+        }
+        offerPlan(method, start, queryString, k, x);
+        for (int i = 0; i < ranked.size(); i++) {
+            sink.accept(ranked.get(i));
+        }
+        return ranked.size();
     }
 
-    @Override
-    public List<Integer> getTopKCustomersInPastXMonth(int k, int x) {
-        LinkedList<Integer> results = new LinkedList<Integer>();
-        String queryString = "SELECT customer_id FROM boutique_coffee.top_customers(?, ?)";
+    // the list returned by the methods without a sink: empty when the operation failed
+    private static List<Integer> toList(int count, IntList ids) {
+        if (count == -1) {
+            return new ArrayList<Integer>();
+        }
+        return new ArrayList<Integer>(ids.asList());
+    }
 
-        beginTransaction(Connection.TRANSACTION_SERIALIZABLE);
+    boolean loadRevenueEngine() {
+        TopKRevenueEngine engine = revenue_engine;
+        // purchases recorded by other threads wait until the load is done, instead of being lost
+        synchronized (engine) {
+            if (engine.isLoaded()) {
+                return true;
+            }
+            engine.clear();
+
+            // prices and rollups from the same snapshot, read through a cursor
+            TransactionSnapshot snapshot;
+            beginRead("loadRevenueEngine");
+            try {
+                snapshot = currentSnapshot();
+                PreparedStatement stmt = statements.prepare("SELECT coffee_id, price FROM boutique_coffee.coffee");
+                stmt.setFetchSize(LOAD_FETCH_SIZE);
+                try (ResultSet values = executeQuery(stmt)) {
+                    while (values.next()) {
+                        engine.setCoffeePrice(values.getInt(1), values.getDouble(2));
+                    }
+                }
 
-        try {
-            PreparedStatement stmt = conn.prepareStatement(queryString);
-            stmt.setInt(1, k);
-            stmt.setInt(2, x);
-            ResultSet values = stmt.executeQuery();
+                Date first = Date.valueOf(LocalDate.ofEpochDay(engine.firstDay()));
+                stmt = statements.prepare("SELECT store_id, day, revenue FROM boutique_coffee.storedailyrevenue WHERE day >= ?");
+                stmt.setFetchSize(LOAD_FETCH_SIZE);
+                stmt.setDate(1, first);
+                try (ResultSet values = executeQuery(stmt)) {
+                    while (values.next()) {
+                        engine.addStoreRevenue(values.getInt(1), values.getDate(2).toLocalDate().toEpochDay(), values.getDouble(3));
+                    }
+                }
 
-            while (values.next()) {
-                int id = values.getInt(1);
-                results.add(id);
+                stmt = statements.prepare("SELECT customer_id, day, revenue FROM boutique_coffee.customerdailyrevenue WHERE day >= ?");
+                stmt.setFetchSize(LOAD_FETCH_SIZE);
+                stmt.setDate(1, first);
+                try (ResultSet values = executeQuery(stmt)) {
+                    while (values.next()) {
+                        engine.addCustomerRevenue(values.getInt(1), values.getDate(2).toLocalDate().toEpochDay(), values.getDouble(3));
+                    }
+                }
+            } catch (SQLException e) {
+                logException(e);
+                rollback();
+                engine.clear();
+                return false;
+            }
+
+            commit();
+            engine.markLoaded(snapshot);
+            return true;
+        }
+    }
+
+    // the snapshot of the transaction, which a REPEATABLE READ or SERIALIZABLE one keeps to the end
+    private TransactionSnapshot currentSnapshot() throws SQLException {
+        try (ResultSet values = executeQuery(statements.prepare("SELECT txid_current_snapshot()"))) {
+            values.next();
+            return TransactionSnapshot.parse(values.getString(1));
+        }
+    }
+
+    boolean loadKeywordIndex() {
+        CoffeeKeywordIndex index = keyword_index;
+        // coffees added by other threads wait until the load is done, instead of being lost
+        synchronized (index) {
+            if (index.isLoaded()) {
+                return true;
+            }
+            index.clear();
+
+            beginTransaction();
+            try {
+                PreparedStatement stmt = statements.prepare("SELECT coffee_id, name FROM boutique_coffee.coffee");
+                stmt.setFetchSize(LOAD_FETCH_SIZE);
+                try (ResultSet values = executeQuery(stmt)) {
+                    while (values.next()) {
+                        index.add(values.getInt(1), values.getString(2));
+                    }
+                }
+            } catch (SQLException e) {
+                logException(e);
+                rollback();
+                index.clear();
+                return false;
+            }
+
+            commit();
+            index.markLoaded();
+            return true;
+        }
+    }
+
+    boolean loadPointsTable() {
+        CustomerPointsTable table = points_table;
+        // purchases recorded by other threads wait until the load is done, instead of being lost
+        synchronized (table) {
+            if (table.isLoaded()) {
+                return true;
+            }
+            table.clear();
+
+            TransactionSnapshot snapshot;
+            beginRead("loadPointsTable");
+            try {
+                snapshot = currentSnapshot();
+                PreparedStatement stmt = statements.prepare(
+                        "SELECT customer_id, memberlevel_id, total_points FROM boutique_coffee.customer WHERE total_points IS NOT NULL");
+                stmt.setFetchSize(LOAD_FETCH_SIZE);
+                try (ResultSet values = executeQuery(stmt)) {
+                    while (values.next()) {
+                        table.put(values.getInt(1), values.getInt(2), values.getDouble(3));
+                    }
+                }
+            } catch (SQLException e) {
+                logException(e);
+                rollback();
+                table.clear();
+                return false;
+            }
+
+            commit();
+            table.markLoaded(snapshot);
+            return true;
+        }
+    }
+
+    // STREAMING
+
+    /**
+     * Passes every coffee to the handler as it is read, holding at most fetchSize rows in memory.
+     * The rows are read through a server side cursor, in a transaction, so the handler should not use this
+     * BoutiqueCoffee; reading stops early when the handler returns false.
+     *
+     * @param fetchSize - rows fetched from the server at a time
+     * @return the number of rows passed to the handler or -1 if the operation failed
+     */
+    public long streamCoffees(int fetchSize, Predicate<? super CatalogCache.Coffee> handler) {
+        return stream("streamCoffees", "SELECT coffee_id, name, price, reward_points, redeem_points FROM boutique_coffee.coffee ORDER BY coffee_id",
+                fetchSize, BoutiqueCoffee::readCoffee, handler);
+    }
+
+    /**
+     * Passes every customer to the handler as it is read, like streamCoffees.
+     *
+     * @return the number of rows passed to the handler or -1 if the operation failed
+     */
+    public long streamCustomers(int fetchSize, Predicate<? super Customer> handler) {
+        return stream("streamCustomers", "SELECT customer_id, first_name, last_name, email, memberlevel_id, total_points " +
+                "FROM boutique_coffee.customer ORDER BY customer_id", fetchSize, BoutiqueCoffee::readCustomer, handler);
+    }
+
+    /**
+     * Passes every coffee bought by the customer to the handler as it is read, oldest purchase first, like
+     * streamCoffees.
+     *
+     * @return the number of rows passed to the handler or -1 if the operation failed
+     */
+    public long streamPurchaseHistory(int customerId, int fetchSize, Predicate<? super PurchaseLine> handler) {
+        return stream("streamPurchaseHistory", PURCHASE_LINES + "WHERE p.customer_id = ? ORDER BY p.purchase_time, p.purchase_id, b.coffee_id",
+                fetchSize, BoutiqueCoffee::readPurchaseLine, handler, customerId);
+    }
+
+    /**
+     * Passes every coffee bought by every purchase to the handler as it is read, oldest purchase first, like
+     * streamCoffees.
+     *
+     * @return the number of rows passed to the handler or -1 if the operation failed
+     */
+    public long streamPurchases(int fetchSize, Predicate<? super PurchaseLine> handler) {
+        return stream("streamPurchases", PURCHASE_LINES + "ORDER BY p.purchase_time, p.purchase_id, b.coffee_id",
+                fetchSize, BoutiqueCoffee::readPurchaseLine, handler);
+    }
+
+    // the driver only fetches rows through a cursor inside a transaction and with a fetch size
+    private <T> long stream(String method, String queryString, int fetchSize, RowReader<T> reader,
+                            Predicate<? super T> handler, int... params) {
+        long count = 0;
+
+        beginRead(method);
+
+        try {
+            PreparedStatement stmt = statements.prepare(queryString);
+            stmt.setFetchSize(Math.max(fetchSize, 1));
+            for (int i = 0; i < params.length; i++) {
+                stmt.setInt(i + 1, params[i]);
+            }
+            try (ResultSet values = executeQuery(stmt)) {
+                for (T row; (row = reader.read(values)) != null; ) {
+                    count++;
+                    if (!handler.test(row)) {
+                        break;
+                    }
+                }
             }
         } catch (SQLException e) {
             logException(e);
             rollback();
-            return new LinkedList<Integer>();
+            return -1;
         } catch (Exception e) {
             rollback();
-            return new LinkedList<Integer>();
+            return -1;
         }
 
         commit();
-        return results;
+        return count;
+    }
+
+    private static Customer readCustomer(ResultSet values) throws SQLException {
+        return values.next() ? new Customer(values.getInt(1), values.getString(2), values.getString(3),
+                values.getString(4), values.getInt(5), values.getDouble(6)) : null;
+    }
+
+    private static PurchaseLine readPurchaseLine(ResultSet values) throws SQLException {
+        return values.next() ? new PurchaseLine(values.getInt(1), values.getInt(2), values.getInt(3), values.getDate(4),
+                values.getInt(5), values.getInt(6), values.getInt(7)) : null;
+    }
+
+    // CATALOG CACHE
+
+    /**
+     * @return the coffee, from the catalog cache when it is enabled, or null if there is no such coffee or the
+     * lookup failed
+     */
+    public CatalogCache.Coffee getCatalogCoffee(int coffeeId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().coffee(coffeeId),
+                "SELECT coffee_id, name, price, reward_points, redeem_points FROM boutique_coffee.coffee WHERE coffee_id = ?",
+                coffeeId, BoutiqueCoffee::readCoffee, (c, coffee) -> c.coffees().put(coffeeId, coffee));
+    }
+
+    /**
+     * @return the store, from the catalog cache when it is enabled, or null if there is no such store or the
+     * lookup failed
+     */
+    public CatalogCache.Store getCatalogStore(int storeId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().store(storeId),
+                "SELECT store_id, name, address, store_type, gps_long, gps_lat FROM boutique_coffee.store WHERE store_id = ?",
+                storeId, BoutiqueCoffee::readStore, (c, store) -> c.stores().put(storeId, store));
+    }
+
+    /**
+     * @return the member level, from the catalog cache when it is enabled, or null if there is no such level or
+     * the lookup failed
+     */
+    public CatalogCache.MemberLevel getCatalogMemberLevel(int memberLevelId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().memberLevel(memberLevelId),
+                "SELECT memberlevel_id, name, booster_factor FROM boutique_coffee.memberlevel WHERE memberlevel_id = ?",
+                memberLevelId, BoutiqueCoffee::readMemberLevel, (c, level) -> c.memberLevels().put(memberLevelId, level));
+    }
+
+    /**
+     * @return the promotion, from the catalog cache when it is enabled, or null if there is no such promotion or
+     * the lookup failed
+     */
+    public CatalogCache.Promotion getCatalogPromotion(int promotionId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().promotion(promotionId),
+                "SELECT promotion_id, name, start_date, end_date FROM boutique_coffee.promotion WHERE promotion_id = ?",
+                promotionId, BoutiqueCoffee::readPromotion, (c, promotion) -> c.promotions().put(promotionId, promotion));
+    }
+
+    /**
+     * @return the ID's of the promotions the store has, or null if the lookup failed
+     */
+    public int[] getCatalogStorePromotions(int storeId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().storePromotions(storeId),
+                "SELECT promotion_id FROM boutique_coffee.haspromotion WHERE store_id = ?",
+                storeId, BoutiqueCoffee::readIds, (c, ids) -> c.storePromotions().put(storeId, ids));
+    }
+
+    /**
+     * @return the ID's of the coffees the promotion is for, or null if the lookup failed
+     */
+    public int[] getCatalogPromotionCoffees(int promotionId) {
+        CatalogCache cache = catalog_cache;
+        return readThrough(cache == null ? null : cache.snapshot().promotionCoffees(promotionId),
+                "SELECT coffee_id FROM boutique_coffee.promotefor WHERE promotion_id = ?",
+                promotionId, BoutiqueCoffee::readIds, (c, ids) -> c.promotionCoffees().put(promotionId, ids));
+    }
+
+    /**
+     * @return whether a purchase of the coffee at the store at the given time gets a promotion, by the same rule
+     * as the points trigger
+     */
+    public boolean isPromoted(int storeId, int coffeeId, Date purchaseTime) {
+        int[] promotionIds = getCatalogStorePromotions(storeId);
+        if (promotionIds == null) {
+            return false;
+        }
+        for (int promotionId : promotionIds) {
+            CatalogCache.Promotion promotion = getCatalogPromotion(promotionId);
+            int[] coffeeIds = getCatalogPromotionCoffees(promotionId);
+            if (promotion != null && coffeeIds != null && promotion.isRunning(purchaseTime)
+                    && Arrays.stream(coffeeIds).anyMatch(id -> id == coffeeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface RowReader<T> {
+        T read(ResultSet values) throws SQLException;
+    }
+
+    // returns the cached value, or queries it and installs it in the cache when one is enabled
+    private <T> T readThrough(T cached, String queryString, int id, RowReader<T> reader,
+                              BiConsumer<CatalogCache.Builder, T> install) {
+        CatalogCache cache = catalog_cache;
+        if (cached != null) {
+            cache.recordHit();
+            return cached;
+        }
+
+        long version = cache == null ? 0 : cache.getVersion();
+        T value;
+        try {
+            PreparedStatement stmt = statements.prepare(queryString);
+            stmt.setInt(1, id);
+            try (ResultSet values = executeQuery(stmt)) {
+                value = reader.read(values);
+            }
+        } catch (SQLException e) {
+            logException(e);
+            return null;
+        }
+
+        if (cache != null) {
+            cache.recordMiss();
+            // skipped if a write went through meanwhile; the next miss reads the row again
+            if (value != null) {
+                cache.update(version, c -> install.accept(c, value));
+            }
+        }
+        return value;
+    }
+
+    private static CatalogCache.Coffee readCoffee(ResultSet values) throws SQLException {
+        return values.next() ? new CatalogCache.Coffee(values.getInt(1), values.getString(2), values.getDouble(3),
+                values.getDouble(4), values.getDouble(5)) : null;
+    }
+
+    private static CatalogCache.Store readStore(ResultSet values) throws SQLException {
+        return values.next() ? new CatalogCache.Store(values.getInt(1), values.getString(2), values.getString(3),
+                values.getString(4), values.getDouble(5), values.getDouble(6)) : null;
+    }
+
+    private static CatalogCache.MemberLevel readMemberLevel(ResultSet values) throws SQLException {
+        return values.next() ? new CatalogCache.MemberLevel(values.getInt(1), values.getString(2), values.getDouble(3)) : null;
+    }
+
+    private static CatalogCache.Promotion readPromotion(ResultSet values) throws SQLException {
+        return values.next() ? new CatalogCache.Promotion(values.getInt(1), values.getString(2), values.getDate(3),
+                values.getDate(4)) : null;
+    }
+
+    private static int[] readIds(ResultSet values) throws SQLException {
+        List<Integer> ids = new ArrayList<Integer>();
+        while (values.next()) {
+            ids.add(values.getInt(1));
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // reads the whole catalog from one snapshot and replaces the cached version with it
+    boolean loadCatalogCache() {
+        CatalogCache cache = catalog_cache;
+        Map<Integer, CatalogCache.Coffee> coffees = new HashMap<Integer, CatalogCache.Coffee>();
+        Map<Integer, CatalogCache.Store> stores = new HashMap<Integer, CatalogCache.Store>();
+        Map<Integer, CatalogCache.MemberLevel> memberLevels = new HashMap<Integer, CatalogCache.MemberLevel>();
+        Map<Integer, CatalogCache.Promotion> promotions = new HashMap<Integer, CatalogCache.Promotion>();
+        Map<Integer, List<Integer>> storePromotions = new HashMap<Integer, List<Integer>>();
+        Map<Integer, List<Integer>> promotionCoffees = new HashMap<Integer, List<Integer>>();
+
+        // a write going through while loading makes the loaded catalog stale, so it is then not installed
+        long version = cache.getVersion();
+        beginRead("loadCatalogCache");
+        try {
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT coffee_id, name, price, reward_points, redeem_points FROM boutique_coffee.coffee"))) {
+                for (CatalogCache.Coffee coffee; (coffee = readCoffee(values)) != null; ) {
+                    coffees.put(coffee.id, coffee);
+                }
+            }
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT store_id, name, address, store_type, gps_long, gps_lat FROM boutique_coffee.store"))) {
+                for (CatalogCache.Store store; (store = readStore(values)) != null; ) {
+                    stores.put(store.id, store);
+                    storePromotions.put(store.id, new ArrayList<Integer>());
+                }
+            }
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT memberlevel_id, name, booster_factor FROM boutique_coffee.memberlevel"))) {
+                for (CatalogCache.MemberLevel level; (level = readMemberLevel(values)) != null; ) {
+                    memberLevels.put(level.id, level);
+                }
+            }
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT promotion_id, name, start_date, end_date FROM boutique_coffee.promotion"))) {
+                for (CatalogCache.Promotion promotion; (promotion = readPromotion(values)) != null; ) {
+                    promotions.put(promotion.id, promotion);
+                    promotionCoffees.put(promotion.id, new ArrayList<Integer>());
+                }
+            }
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT store_id, promotion_id FROM boutique_coffee.haspromotion"))) {
+                while (values.next()) {
+                    storePromotions.get(values.getInt(1)).add(values.getInt(2));
+                }
+            }
+            try (ResultSet values = executeQuery(statements.prepare(
+                    "SELECT promotion_id, coffee_id FROM boutique_coffee.promotefor"))) {
+                while (values.next()) {
+                    promotionCoffees.get(values.getInt(1)).add(values.getInt(2));
+                }
+            }
+        } catch (SQLException e) {
+            logException(e);
+            rollback();
+            return false;
+        }
+        commit();
+
+        return cache.replace(version, c -> {
+            c.coffees().putAll(coffees);
+            c.stores().putAll(stores);
+            c.memberLevels().putAll(memberLevels);
+            c.promotions().putAll(promotions);
+            storePromotions.forEach((id, ids) -> c.storePromotions().put(id, ids.stream().mapToInt(Integer::intValue).toArray()));
+            promotionCoffees.forEach((id, ids) -> c.promotionCoffees().put(id, ids.stream().mapToInt(Integer::intValue).toArray()));
+        });
+    }
+
+    // the in memory views are reloaded from the database the next time they are used
+    private void invalidateViews() {
+        if (revenue_engine != null) {
+            revenue_engine.clear();
+        }
+        if (keyword_index != null) {
+            keyword_index.clear();
+        }
+        if (catalog_cache != null) {
+            catalog_cache.clear();
+        }
+        if (points_table != null) {
+            points_table.clear();
+        }
     }
 
     private void logException(SQLException e) {
+        last_sql_state.set(e.getSQLState());
+        thread_outcomes.get()[FAILURES]++;
         error_logger.accept("SQL ERROR");
         while (e != null) {
             error_logger.accept(e.getMessage());
@@ -490,7 +1700,13 @@ class BoutiqueCoffee implements ITransactionManager {
         try {
             List<String> lines = Files.readAllLines(Paths.get(filename));
             String queryString = String.join("\n", lines.toArray(new String[0]));
-            conn.prepareCall(queryString).execute();
+
+            // scripts may drop and recreate the schema, invalidating every cached plan and in memory view
+            statements.clear();
+            invalidateViews();
+            try (CallableStatement stmt = conn.prepareCall(queryString)) {
+                stmt.execute();
+            }
         } catch (SQLException e) {
             logException(e);
         } catch (Exception e) {
@@ -498,80 +1714,154 @@ class BoutiqueCoffee implements ITransactionManager {
         }
     }
 
+    /**
+     * Loads rows into the schema with COPY, loading the tables in parallel on separate connections.
+     * Constraints and indexes of the loaded tables are rebuilt and their serial sequences advanced afterwards.
+     *
+     * @return the number of rows loaded or -1 if the load failed
+     */
+    public long bulkLoad(List<BulkSource> sources) {
+        try {
+            return new BulkLoader(conn, () -> DriverManager.getConnection(url, props)).load(sources);
+        } catch (SQLException e) {
+            logException(e);
+            return -1;
+        } finally {
+            invalidateViews();
+        }
+    }
+
     private void beginTransaction() {
         beginTransaction(Connection.TRANSACTION_READ_COMMITTED);
     }
 
+    // starts a read only transaction in the read mode chosen for the method
+    private void beginRead(String method) {
+        try {
+            conn.setAutoCommit(false);
+            // the driver sends BEGIN with the first statement, so this one sets up the transaction
+            statements.prepare(read_modes.get(method).sql).execute();
+        } catch (SQLException e) {
+            logException(e);
+        }
+    }
+
     private void beginTransaction(int isolation_level) {
         try {
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(isolation_level);
+            setIsolation(isolation_level);
         } catch (SQLException e) {
             logException(e);
         }
     }
 
-    private void commit() {
+    // the level set persists for the session, also for statements run in autocommit, so it is only sent on a change
+    private void setIsolation(int level) throws SQLException {
+        if (session_isolation != level) {
+            conn.setTransactionIsolation(level);
+            session_isolation = level;
+        }
+    }
+
+    /**
+     * @return whether the transaction committed; if not it was rolled back
+     */
+    private boolean commit() {
+        BCEvents.TransactionEndEvent event = new BCEvents.TransactionEndEvent();
+        event.begin();
         try {
+            checkCancelled();
             conn.commit();
             conn.setAutoCommit(true);
         } catch (SQLException e) {
+            event.sqlState = e.getSQLState();
+            event.commit();
             logException(e);
+            rollback();
+            return false;
         }
-
+        event.committed = true;
+        event.commit();
+        return true;
     }
 
     private void rollback() {
+        thread_outcomes.get()[ROLLBACKS]++;
+        BCEvents.TransactionEndEvent event = new BCEvents.TransactionEndEvent();
+        event.begin();
         try {
             conn.rollback();
             conn.setAutoCommit(true);
         } catch (SQLException e) {
+            event.sqlState = e.getSQLState();
             logException(e);
         }
+        event.commit();
     }
 
-    /*****************************************************************
-     *           FUNCTIONS FOR GUI EXTRA CREDIT STARTS HERE          *
-     *****************************************************************/
-
-    public int addPurchase_GUI(int customerId, int storeId, Date dateNow, int coffeeIds, int purchaseQuantities, int redeemQuantities) {
-        int val = -1;
-        String purchaseString = "INSERT INTO boutique_coffee.purchase(customer_id, store_id, purchase_time) VALUES (?, ?, ?)";
-        String coffeeString = "INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity) VALUES (?, ?, ?, ?)";
-        String fieldName = "purchase_id";
-        PreparedStatement stmt;
+    // every statement of an operation runs through these, so that slow ones are recorded as bc.Statement events
+    private ResultSet executeQuery(PreparedStatement stmt) throws SQLException {
+        BCEvents.StatementEvent event = new BCEvents.StatementEvent();
+        event.begin();
+        running_statement = stmt;
         try {
-            stmt = conn.prepareStatement(purchaseString, new String[]{fieldName});
-            stmt.setInt(1, customerId);
-            stmt.setInt(2, storeId);
-            stmt.setDate(3, dateNow);
+            checkCancelled();
+            return stmt.executeQuery();
+        } catch (SQLException e) {
+            event.sqlState = e.getSQLState();
+            throw e;
+        } finally {
+            running_statement = null;
+            event.finish(stmt);
+        }
+    }
 
-            int rows = stmt.executeUpdate();
-            if (rows == 0) {
-                throw new SQLException("Add Purchase Failed, no rows affected in purchase table");
-            }
+    private int executeUpdate(PreparedStatement stmt) throws SQLException {
+        BCEvents.StatementEvent event = new BCEvents.StatementEvent();
+        event.begin();
+        running_statement = stmt;
+        try {
+            checkCancelled();
+            event.rows = stmt.executeUpdate();
+            return event.rows;
+        } catch (SQLException e) {
+            event.sqlState = e.getSQLState();
+            throw e;
+        } finally {
+            running_statement = null;
+            event.finish(stmt);
+        }
+    }
 
-            ResultSet values = stmt.getGeneratedKeys();
-            if (values.next()) {
-                val = values.getInt(1);
+    private int[] executeBatch(PreparedStatement stmt) throws SQLException {
+        BCEvents.StatementEvent event = new BCEvents.StatementEvent();
+        event.begin();
+        running_statement = stmt;
+        try {
+            checkCancelled();
+            int[] counts = stmt.executeBatch();
+            event.batchSize = counts.length;
+            event.rows = 0;
+            for (int count : counts) {
+                event.rows += Math.max(count, 0);
             }
+            return counts;
+        } catch (SQLException e) {
+            event.sqlState = e.getSQLState();
+            throw e;
+        } finally {
+            running_statement = null;
+            event.finish(stmt);
+        }
+    }
 
-            stmt = conn.prepareStatement(coffeeString);
-            stmt.setInt(1, val);
-            stmt.setInt(2, coffeeIds);
-            stmt.setInt(3, purchaseQuantities);
-            stmt.setInt(4, redeemQuantities);
-
-            rows = stmt.executeUpdate();
-            if (rows == 0) {
-                throw new SQLException("Add Purchase Failed, no rows affected in buyCoffee table");
-            }
+    /*****************************************************************
+     *           FUNCTIONS FOR GUI EXTRA CREDIT STARTS HERE          *
+     *****************************************************************/
 
-        } catch (SQLException e){
-            logException(e);
-            val = -1;
-        }
-        return val;
+    public int addPurchase_GUI(int customerId, int storeId, Date dateNow, int coffeeIds, int purchaseQuantities, int redeemQuantities) {
+        return addPurchase(customerId, storeId, dateNow, Collections.singletonList(coffeeIds),
+                Collections.singletonList(purchaseQuantities), Collections.singletonList(redeemQuantities));
     }
 
     // Returns Member ID if found. else returns -1.
@@ -579,14 +1869,14 @@ class BoutiqueCoffee implements ITransactionManager {
         double val;
         String QSgetMemberID = "SELECT customer_id FROM boutique_coffee.customer WHERE customer_id = ?";
         try {
-            PreparedStatement statement = conn.prepareStatement(QSgetMemberID);
+            PreparedStatement statement = statements.prepare(QSgetMemberID);
             statement.setInt(1, memberID);
-            ResultSet values = statement.executeQuery();
-
-            if (values.next()) {
-                val = values.getDouble(1);
-            } else {
-                val = -1;
+            try (ResultSet values = executeQuery(statement)) {
+                if (values.next()) {
+                    val = values.getDouble(1);
+                } else {
+                    val = -1;
+                }
             }
         } catch (SQLException e) {
             logException(e);
@@ -601,14 +1891,14 @@ class BoutiqueCoffee implements ITransactionManager {
         String val;
         String QSgetMemberID = "SELECT first_name FROM boutique_coffee.customer WHERE customer_id = ?";
         try {
-            PreparedStatement statement = conn.prepareStatement(QSgetMemberID);
+            PreparedStatement statement = statements.prepare(QSgetMemberID);
             statement.setInt(1, memberID);
-            ResultSet values = statement.executeQuery();
-
-            if (values.next()) {
-                val = values.getString("first_name");
-            } else {
-                val = "Not Found";
+            try (ResultSet values = executeQuery(statement)) {
+                if (values.next()) {
+                    val = values.getString("first_name");
+                } else {
+                    val = "Not Found";
+                }
             }
         } catch (SQLException e) {
             logException(e);
@@ -623,14 +1913,14 @@ class BoutiqueCoffee implements ITransactionManager {
         String val;
         String QSgetMemberID = "SELECT last_name FROM boutique_coffee.customer WHERE customer_id = ?";
         try {
-            PreparedStatement statement = conn.prepareStatement(QSgetMemberID);
+            PreparedStatement statement = statements.prepare(QSgetMemberID);
             statement.setInt(1, memberID);
-            ResultSet values = statement.executeQuery();
-
-            if (values.next()) {
-                val = values.getString("last_name");
-            } else {
-                val = "Not Found";
+            try (ResultSet values = executeQuery(statement)) {
+                if (values.next()) {
+                    val = values.getString("last_name");
+                } else {
+                    val = "Not Found";
+                }
             }
         } catch (SQLException e) {
             logException(e);
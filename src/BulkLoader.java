@@ -0,0 +1,301 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads BulkSources into the boutique_coffee schema with COPY, one connection and thread per table.
+ * Constraints and indexes of the loaded tables are dropped for the load and rebuilt afterwards, so tables can be
+ * loaded in any order and each index is built once instead of row by row. User triggers are disabled during the
+ * load: loaded rows are taken as they are, e.g. imported purchases do not change customer points again.
+ * The daily revenue rollups are rebuilt from the loaded purchases instead.
+ */
+class BulkLoader {
+    interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    private final Connection conn;
+    private final ConnectionFactory factory;
+
+    private final List<String> dropped_constraints = new ArrayList<String>();
+    private final List<String> dropped_foreign_keys = new ArrayList<String>();
+    private final List<String> dropped_indexes = new ArrayList<String>();
+
+    /**
+     * @param conn    - autocommit connection used to drop and rebuild constraints
+     * @param factory - opens the extra connections used to copy tables in parallel
+     */
+    BulkLoader(Connection conn, ConnectionFactory factory) {
+        this.conn = conn;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the number of rows loaded
+     */
+    long load(List<BulkSource> sources) throws SQLException {
+        Map<String, List<BulkSource>> byTable = new LinkedHashMap<String, List<BulkSource>>();
+        for (BulkSource source : sources) {
+            byTable.computeIfAbsent(source.getTable(), t -> new ArrayList<BulkSource>()).add(source);
+        }
+        if (byTable.isEmpty()) {
+            return 0;
+        }
+
+        List<String> tables = new ArrayList<String>(byTable.keySet());
+        prepareTables(tables);
+
+        long rows = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tables.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Long>> loads = new ArrayList<Future<Long>>();
+            for (List<BulkSource> tableSources : byTable.values()) {
+                loads.add(executor.submit(() -> copyTable(tableSources)));
+            }
+            for (Future<Long> load : loads) {
+                rows += load.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Bulk load interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Bulk load failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            restoreTables(tables);
+        }
+
+        return rows;
+    }
+
+    // drops the constraints and indexes of the loaded tables, remembering how to recreate them
+    private void prepareTables(List<String> tables) throws SQLException {
+        inTransaction(() -> dropConstraints(tables));
+    }
+
+    private void dropConstraints(List<String> tables) throws SQLException {
+        dropped_constraints.clear();
+        dropped_indexes.clear();
+        dropped_foreign_keys.clear();
+
+        String tableList = "ARRAY['boutique_coffee." + String.join("', 'boutique_coffee.", tables) + "']::regclass[]";
+        try (Statement stmt = conn.createStatement()) {
+            // foreign keys on or referencing the loaded tables must go before the keys they depend on
+            try (ResultSet values = stmt.executeQuery(
+                    "SELECT conrelid::regclass, conname, pg_get_constraintdef(oid), contype FROM pg_constraint " +
+                            "WHERE contype IN ('p', 'u', 'f') AND conparentid = 0 AND (conrelid = ANY(" + tableList + ") " +
+                            "OR confrelid = ANY(" + tableList + "))")) {
+                while (values.next()) {
+                    String restore = "ALTER TABLE " + values.getString(1) + " ADD CONSTRAINT "
+                            + quote(values.getString(2)) + " " + values.getString(3);
+                    if ("f".equals(values.getString(4))) {
+                        dropped_foreign_keys.add(restore);
+                    } else {
+                        dropped_constraints.add(restore);
+                    }
+                }
+            }
+
+            try (ResultSet values = stmt.executeQuery(
+                    "SELECT pg_get_indexdef(i.indexrelid) FROM pg_index AS i " +
+                            "WHERE i.indrelid = ANY(" + tableList + ") " +
+                            "AND NOT EXISTS (SELECT 1 FROM pg_constraint AS c WHERE c.conindid = i.indexrelid)")) {
+                while (values.next()) {
+                    dropped_indexes.add(values.getString(1));
+                }
+            }
+
+            for (String restore : dropped_foreign_keys) {
+                stmt.execute(dropStatement(restore));
+            }
+            for (String restore : dropped_constraints) {
+                stmt.execute(dropStatement(restore));
+            }
+            try (ResultSet values = stmt.executeQuery(
+                    "SELECT i.indexrelid::regclass FROM pg_index AS i WHERE i.indrelid = ANY(" + tableList + ") " +
+                            "AND NOT EXISTS (SELECT 1 FROM pg_constraint AS c WHERE c.conindid = i.indexrelid)")) {
+                List<String> names = new ArrayList<String>();
+                while (values.next()) {
+                    names.add(values.getString(1));
+                }
+                for (String name : names) {
+                    stmt.execute("DROP INDEX " + name);
+                }
+            }
+            for (String table : tables) {
+                stmt.execute("ALTER TABLE boutique_coffee." + table + " DISABLE TRIGGER USER");
+            }
+        }
+    }
+
+    // rebuilds everything dropped by prepareTables, and moves serial sequences past the loaded ids
+    private void restoreTables(List<String> tables) throws SQLException {
+        inTransaction(() -> rebuildConstraints(tables));
+    }
+
+    private void rebuildConstraints(List<String> tables) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String table : tables) {
+                stmt.execute("ALTER TABLE boutique_coffee." + table + " ENABLE TRIGGER USER");
+            }
+            for (String restore : dropped_constraints) {
+                stmt.execute(restore);
+            }
+            for (String restore : dropped_indexes) {
+                stmt.execute(restore);
+            }
+            for (String restore : dropped_foreign_keys) {
+                stmt.execute(restore);
+            }
+            dropped_constraints.clear();
+            dropped_indexes.clear();
+            dropped_foreign_keys.clear();
+
+            for (String table : tables) {
+                List<String> serials = new ArrayList<String>();
+                try (ResultSet values = stmt.executeQuery(
+                        "SELECT column_name FROM information_schema.columns WHERE table_schema = 'boutique_coffee' " +
+                                "AND table_name = '" + table + "' AND column_default LIKE 'nextval(%'")) {
+                    while (values.next()) {
+                        serials.add(values.getString(1));
+                    }
+                }
+                for (String column : serials) {
+                    stmt.execute("SELECT setval(pg_get_serial_sequence('boutique_coffee." + table + "', '" + column
+                            + "'), coalesce(max(" + column + "), 1), max(" + column + ") IS NOT NULL) " +
+                            "FROM boutique_coffee." + table);
+                }
+                stmt.execute("ANALYZE boutique_coffee." + table);
+            }
+
+            // purchases outside the months partitioned so far land in the default partitions, so split them out
+            if (tables.contains("purchase") && hasFunction(stmt, "ensure_purchase_partitions(date, date)")) {
+                stmt.execute("SELECT boutique_coffee.ensure_purchase_partitions(min(purchase_time), max(purchase_time)) " +
+                        "FROM boutique_coffee.purchase_default HAVING count(*) > 0");
+            }
+
+            // the rollup trigger was disabled along with the others, so rebuild the rollups from the loaded rows
+            if (tables.contains("purchase") || tables.contains("buycoffee") || tables.contains("coffee")) {
+                if (hasFunction(stmt, "refresh_revenue_rollups()")) {
+                    stmt.execute("SELECT boutique_coffee.refresh_revenue_rollups()");
+                }
+            }
+        }
+    }
+
+    private static boolean hasFunction(Statement stmt, String signature) throws SQLException {
+        try (ResultSet values = stmt.executeQuery(
+                "SELECT to_regprocedure('boutique_coffee." + signature + "') IS NOT NULL")) {
+            return values.next() && values.getBoolean(1);
+        }
+    }
+
+    private interface SqlWork {
+        void run() throws SQLException;
+    }
+
+    // DDL is transactional in PostgreSQL, so a failure leaves the schema as it was
+    private void inTransaction(SqlWork work) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            work.run();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // all sources of a table are loaded in one transaction, so a failing table is left empty
+    private long copyTable(List<BulkSource> sources) throws Exception {
+        try (Connection copyConn = factory.open()) {
+            copyConn.setAutoCommit(false);
+            CopyManager copy = copyConn.unwrap(PGConnection.class).getCopyAPI();
+            long rows = 0;
+            for (BulkSource source : sources) {
+                if (source.isCsv()) {
+                    rows += copy.copyIn(source.copyStatement(), source.getCsv(), COPY_BUFFER_SIZE);
+                } else {
+                    rows += copyRows(copy.copyIn(source.copyStatement()), source.getRows());
+                }
+            }
+            copyConn.commit();
+            return rows;
+        }
+    }
+
+    // streams the rows as CSV, holding at most one buffer of them in memory
+    private static long copyRows(CopyIn copyIn, Iterator<Object[]> rows) throws SQLException {
+        StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE);
+        try {
+            while (rows.hasNext()) {
+                appendCsv(buffer, rows.next());
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                    copyIn.writeToCopy(bytes, 0, bytes.length);
+                    buffer.setLength(0);
+                }
+            }
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void appendCsv(StringBuilder buffer, Object[] row) {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            Object value = row[i];
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                buffer.append(value);
+            } else {
+                buffer.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+            }
+        }
+        buffer.append('\n');
+    }
+
+    private static String dropStatement(String restore) {
+        // "ALTER TABLE t ADD CONSTRAINT name def" -> "ALTER TABLE t DROP CONSTRAINT name"
+        int add = restore.indexOf(" ADD CONSTRAINT ");
+        String name = restore.substring(add + " ADD CONSTRAINT ".length());
+        name = name.startsWith("\"") ? name.substring(0, name.indexOf('"', 1) + 1) : name.substring(0, name.indexOf(' '));
+        return restore.substring(0, add) + " DROP CONSTRAINT " + name;
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Rows for one table of the boutique_coffee schema, to be loaded by BoutiqueCoffee.bulkLoad.
+ * Rows either come from CSV text or from an iterator of column values in the order of the column list.
+ */
+public class BulkSource {
+    static final Set<String> TABLES = new HashSet<String>(Arrays.asList(
+            "store", "coffee", "promotion", "memberlevel", "customer", "purchase",
+            "offercoffee", "haspromotion", "promotefor", "buycoffee"));
+
+    private static final Pattern COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String table;
+    private final String[] columns;
+    private final Reader csv;
+    private final boolean header;
+    private final Iterator<Object[]> rows;
+
+    private BulkSource(String table, String[] columns, Reader csv, boolean header, Iterator<Object[]> rows) {
+        this.table = table.toLowerCase();
+        this.columns = columns.clone();
+        this.csv = csv;
+        this.header = header;
+        this.rows = rows;
+
+        if (!TABLES.contains(this.table)) {
+            throw new IllegalArgumentException("Unknown table " + table);
+        }
+        for (String column : columns) {
+            if (!COLUMN.matcher(column).matches()) {
+                throw new IllegalArgumentException("Invalid column name " + column);
+            }
+        }
+    }
+
+    /**
+     * @param header - whether the first line of csv holds column names and should be skipped
+     */
+    public static BulkSource csv(String table, String[] columns, Reader csv, boolean header) {
+        return new BulkSource(table, columns, csv, header, null);
+    }
+
+    /**
+     * @param rows - one array per row, its values mapping 1-to-1 to columns. Values are written with toString(), null is SQL NULL
+     */
+    public static BulkSource rows(String table, String[] columns, Iterator<Object[]> rows) {
+        return new BulkSource(table, columns, null, false, rows);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    boolean isCsv() {
+        return csv != null;
+    }
+
+    Reader getCsv() {
+        return csv;
+    }
+
+    Iterator<Object[]> getRows() {
+        return rows;
+    }
+
+    String copyStatement() {
+        return "COPY boutique_coffee." + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv"
+                + (header ? ", HEADER true" : "") + ")";
+    }
+}
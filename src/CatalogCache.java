@@ -0,0 +1,320 @@
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache of the catalog: coffees, stores, member levels, promotions and which promotions run at which
+ * store for which coffees. These rows change a few times a day but are read on every purchase.
+ * The cache is an immutable Snapshot replaced on every change, so a reader holding a snapshot sees one consistent
+ * version of the whole catalog. BoutiqueCoffee fills it on misses or in bulk, and writes its own changes through.
+ */
+class CatalogCache {
+    public static class Coffee {
+        public final int id;
+        public final String name;
+        public final double price;
+        public final double rewardPoints;
+        public final double redeemPoints;
+
+        Coffee(int id, String name, double price, double rewardPoints, double redeemPoints) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+            this.rewardPoints = rewardPoints;
+            this.redeemPoints = redeemPoints;
+        }
+    }
+
+    public static class Store {
+        public final int id;
+        public final String name;
+        public final String address;
+        public final String storeType;
+        public final double gpsLong;
+        public final double gpsLat;
+
+        Store(int id, String name, String address, String storeType, double gpsLong, double gpsLat) {
+            this.id = id;
+            this.name = name;
+            this.address = address;
+            this.storeType = storeType;
+            this.gpsLong = gpsLong;
+            this.gpsLat = gpsLat;
+        }
+    }
+
+    public static class MemberLevel {
+        public final int id;
+        public final String name;
+        public final double boosterFactor;
+
+        MemberLevel(int id, String name, double boosterFactor) {
+            this.id = id;
+            this.name = name;
+            this.boosterFactor = boosterFactor;
+        }
+    }
+
+    public static class Promotion {
+        public final int id;
+        public final String name;
+        public final Date startDate;
+        public final Date endDate;
+
+        Promotion(int id, String name, Date startDate, Date endDate) {
+            this.id = id;
+            this.name = name;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        /**
+         * @return whether a purchase at the given time gets the promotion, matching the points trigger
+         */
+        public boolean isRunning(Date purchaseTime) {
+            return startDate != null && endDate != null && purchaseTime.after(startDate) && purchaseTime.before(endDate);
+        }
+    }
+
+    /**
+     * One version of the catalog. A missing key means the row has not been cached, not that it does not exist.
+     */
+    public static class Snapshot {
+        public final long version;
+        final Map<Integer, Coffee> coffees;
+        final Map<Integer, Store> stores;
+        final Map<Integer, MemberLevel> memberLevels;
+        final Map<Integer, Promotion> promotions;
+        // store id -> ids of the promotions it has, promotion id -> ids of the coffees it promotes
+        final Map<Integer, int[]> storePromotions;
+        final Map<Integer, int[]> promotionCoffees;
+
+        private Snapshot(long version, Map<Integer, Coffee> coffees, Map<Integer, Store> stores,
+                         Map<Integer, MemberLevel> memberLevels, Map<Integer, Promotion> promotions,
+                         Map<Integer, int[]> storePromotions, Map<Integer, int[]> promotionCoffees) {
+            this.version = version;
+            this.coffees = coffees;
+            this.stores = stores;
+            this.memberLevels = memberLevels;
+            this.promotions = promotions;
+            this.storePromotions = storePromotions;
+            this.promotionCoffees = promotionCoffees;
+        }
+
+        public Coffee coffee(int id) {
+            return coffees.get(id);
+        }
+
+        public Store store(int id) {
+            return stores.get(id);
+        }
+
+        public MemberLevel memberLevel(int id) {
+            return memberLevels.get(id);
+        }
+
+        public Promotion promotion(int id) {
+            return promotions.get(id);
+        }
+
+        int[] storePromotions(int storeId) {
+            return storePromotions.get(storeId);
+        }
+
+        int[] promotionCoffees(int promotionId) {
+            return promotionCoffees.get(promotionId);
+        }
+
+        int size() {
+            return coffees.size() + stores.size() + memberLevels.size() + promotions.size()
+                    + storePromotions.size() + promotionCoffees.size();
+        }
+    }
+
+    /**
+     * Mutable copy of a snapshot, used to build the next version. Each map is copied the first time it is asked
+     * for, so a change to one relation leaves the others shared with the previous version.
+     */
+    static class Builder {
+        private final Snapshot from;
+        private Map<Integer, Coffee> coffees;
+        private Map<Integer, Store> stores;
+        private Map<Integer, MemberLevel> memberLevels;
+        private Map<Integer, Promotion> promotions;
+        private Map<Integer, int[]> storePromotions;
+        private Map<Integer, int[]> promotionCoffees;
+
+        private Builder(Snapshot from) {
+            this.from = from;
+        }
+
+        Map<Integer, Coffee> coffees() {
+            if (coffees == null) {
+                coffees = new HashMap<Integer, Coffee>(from.coffees);
+            }
+            return coffees;
+        }
+
+        Map<Integer, Store> stores() {
+            if (stores == null) {
+                stores = new HashMap<Integer, Store>(from.stores);
+            }
+            return stores;
+        }
+
+        Map<Integer, MemberLevel> memberLevels() {
+            if (memberLevels == null) {
+                memberLevels = new HashMap<Integer, MemberLevel>(from.memberLevels);
+            }
+            return memberLevels;
+        }
+
+        Map<Integer, Promotion> promotions() {
+            if (promotions == null) {
+                promotions = new HashMap<Integer, Promotion>(from.promotions);
+            }
+            return promotions;
+        }
+
+        Map<Integer, int[]> storePromotions() {
+            if (storePromotions == null) {
+                storePromotions = new HashMap<Integer, int[]>(from.storePromotions);
+            }
+            return storePromotions;
+        }
+
+        Map<Integer, int[]> promotionCoffees() {
+            if (promotionCoffees == null) {
+                promotionCoffees = new HashMap<Integer, int[]>(from.promotionCoffees);
+            }
+            return promotionCoffees;
+        }
+
+        private Snapshot build() {
+            return new Snapshot(from.version + 1, published(coffees, from.coffees), published(stores, from.stores),
+                    published(memberLevels, from.memberLevels), published(promotions, from.promotions),
+                    published(storePromotions, from.storePromotions),
+                    published(promotionCoffees, from.promotionCoffees));
+        }
+
+        private static <T> Map<Integer, T> published(Map<Integer, T> changed, Map<Integer, T> unchanged) {
+            return changed == null ? unchanged : Collections.unmodifiableMap(changed);
+        }
+
+        // adds to a relation only if it is cached, since a partial list would hide the rows not yet cached
+        static void addTo(Map<Integer, int[]> relation, int key, int value) {
+            int[] values = relation.get(key);
+            if (values != null && Arrays.stream(values).noneMatch(v -> v == value)) {
+                int[] grown = Arrays.copyOf(values, values.length + 1);
+                grown[values.length] = value;
+                relation.put(key, grown);
+            }
+        }
+    }
+
+    private volatile Snapshot current;
+    private volatile boolean loaded;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    CatalogCache() {
+        current = empty(0);
+    }
+
+    private static Snapshot empty(long version) {
+        return new Snapshot(version, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public long getVersion() {
+        return current.version;
+    }
+
+    /**
+     * @return whether the whole catalog was loaded in bulk
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Publishes a new version with the changes made by update to a copy of the current one. Every call makes a
+     * new version, even one that changes nothing, so that a read started before it does not install older rows.
+     */
+    synchronized void update(Consumer<Builder> update) {
+        Builder next = new Builder(current);
+        update.accept(next);
+        current = next.build();
+    }
+
+    /**
+     * Like update, but only while the cache is still at the expected version. A row read from the database after
+     * reading the version is installed this way, so it cannot overwrite a newer row written through meanwhile.
+     *
+     * @return whether the new version was published
+     */
+    synchronized boolean update(long expected, Consumer<Builder> update) {
+        if (current.version != expected) {
+            return false;
+        }
+        update(update);
+        return true;
+    }
+
+    /**
+     * Replaces every cached row with the rows added by fill, and marks the cache loaded, unless the cache is no
+     * longer at the expected version.
+     *
+     * @return whether the new version was published
+     */
+    synchronized boolean replace(long expected, Consumer<Builder> fill) {
+        if (current.version != expected) {
+            return false;
+        }
+        evictions.addAndGet(current.size());
+        Builder next = new Builder(empty(current.version));
+        fill.accept(next);
+        current = next.build();
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Drops every cached row.
+     */
+    synchronized void clear() {
+        evictions.addAndGet(current.size());
+        current = empty(current.version + 1);
+        loaded = false;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Trigram inverted index over Coffee.Name, answering getCoffeesByKeywords without a query.
+ * Each trigram maps to a bitmap of the coffee ids whose name contains it. A keyword narrows the candidates to the
+ * intersection of the bitmaps of its trigrams, and every candidate is then checked against the keywords, so the
+ * result is exactly the ids matched by name LIKE '%keyword1%' AND name LIKE '%keyword2%'.
+ */
+class CoffeeKeywordIndex {
+    private String[] names = new String[64];
+    private final BitSet ids = new BitSet();
+    private final Map<Long, BitSet> postings = new HashMap<Long, BitSet>();
+    private boolean loaded;
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized void markLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * Empties the index; it has to be reloaded before it answers again.
+     */
+    synchronized void clear() {
+        names = new String[64];
+        ids.clear();
+        postings.clear();
+        loaded = false;
+    }
+
+    synchronized void add(int coffeeId, String name) {
+        if (coffeeId < 0) {
+            return;
+        }
+        if (coffeeId >= names.length) {
+            names = Arrays.copyOf(names, Math.max(coffeeId + 1, names.length * 2));
+        }
+        names[coffeeId] = name;
+        // a NULL name never matches LIKE, so it is left out of the index
+        if (name == null) {
+            return;
+        }
+        ids.set(coffeeId);
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            postings.computeIfAbsent(trigram(name, i), t -> new BitSet()).set(coffeeId);
+        }
+    }
+
+    /**
+     * Passes the ids of the coffees whose name contains both keywords to the sink in ascending order.
+     *
+     * @return the number of ids passed, or -1 if the index is not loaded or a keyword holds a LIKE wildcard that
+     * only the database can evaluate
+     */
+    synchronized int search(String keyword1, String keyword2, IntConsumer sink) {
+        if (!loaded || hasWildcard(keyword1) || hasWildcard(keyword2)) {
+            return -1;
+        }
+
+        BitSet candidates = (BitSet) ids.clone();
+        narrow(candidates, keyword1);
+        narrow(candidates, keyword2);
+
+        int count = 0;
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            if (names[id].contains(keyword1) && names[id].contains(keyword2)) {
+                sink.accept(id);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // keywords shorter than a trigram leave the candidates alone and are checked by the verify step
+    private void narrow(BitSet candidates, String keyword) {
+        for (int i = 0; i + 3 <= keyword.length() && !candidates.isEmpty(); i++) {
+            BitSet posting = postings.get(trigram(keyword, i));
+            if (posting == null) {
+                candidates.clear();
+            } else {
+                candidates.and(posting);
+            }
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static boolean hasWildcard(String keyword) {
+        return keyword.indexOf('%') >= 0 || keyword.indexOf('_') >= 0 || keyword.indexOf('\\') >= 0;
+    }
+}
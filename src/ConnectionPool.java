@@ -0,0 +1,233 @@
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of BoutiqueCoffee instances, each owning one connection and its statement cache.
+ * A member is used by a single thread between borrow() and release(), so the per connection transaction
+ * state in BoutiqueCoffee is never shared.
+ */
+class ConnectionPool implements AutoCloseable {
+    interface MemberFactory {
+        BoutiqueCoffee create() throws SQLException, ClassNotFoundException;
+    }
+
+    private static class IdleMember {
+        final BoutiqueCoffee member;
+        final long generation;
+        final long idleSince;
+
+        IdleMember(BoutiqueCoffee member, long generation, long idleSince) {
+            this.member = member;
+            this.generation = generation;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private final MemberFactory factory;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+    private final long idleTimeoutNanos;
+
+    private final Semaphore permits;
+    // most recently released member at the head, so idle members collect at the tail
+    private final LinkedBlockingDeque<IdleMember> idle = new LinkedBlockingDeque<IdleMember>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+    // bumped by clear(); members from an earlier generation are closed instead of being used again
+    private final AtomicLong generation = new AtomicLong();
+    // the generation of every borrowed member, taken from when it was created
+    private final ConcurrentHashMap<BoutiqueCoffee, Long> borrowed = new ConcurrentHashMap<BoutiqueCoffee, Long>();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public ConnectionPool(MemberFactory factory, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("pool size must be positive");
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.permits = new Semaphore(maxSize, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(1, idleTimeoutMillis / 2);
+            evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return a member for exclusive use by the calling thread, which must hand it back through release()
+     * @throws SQLTimeoutException if no member became available within the acquisition timeout
+     */
+    public BoutiqueCoffee borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        BCEvents.ConnectionAcquireEvent event = new BCEvents.ConnectionAcquireEvent();
+        event.begin();
+        try {
+            BoutiqueCoffee member = acquire(event);
+            event.commit();
+            return member;
+        } catch (SQLTimeoutException e) {
+            event.timedOut = true;
+            event.commit();
+            throw e;
+        }
+    }
+
+    private BoutiqueCoffee acquire(BCEvents.ConnectionAcquireEvent event) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out waiting for a pooled connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a pooled connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        IdleMember entry;
+        while ((entry = idle.pollFirst()) != null) {
+            // released before a clear() that has not drained it yet
+            if (entry.generation < generation.get()) {
+                entry.member.close();
+                evicted.incrementAndGet();
+                continue;
+            }
+            borrowed.put(entry.member, entry.generation);
+            return entry.member;
+        }
+
+        event.created = true;
+        try {
+            long current = generation.get();
+            BoutiqueCoffee member = factory.create();
+            created.incrementAndGet();
+            borrowed.put(member, current);
+            return member;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (ClassNotFoundException e) {
+            permits.release();
+            throw new SQLException("PostgreSQL driver is not available", e);
+        }
+    }
+
+    public void release(BoutiqueCoffee member) {
+        Long memberGeneration = borrowed.remove(member);
+        if (closed || member.isClosed() || memberGeneration == null || memberGeneration < generation.get()) {
+            member.close();
+        } else {
+            idle.offerFirst(new IdleMember(member, memberGeneration, System.nanoTime()));
+        }
+        permits.release();
+    }
+
+    private void recordWait(long waitNanos) {
+        acquisitions.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<IdleMember> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            IdleMember entry = it.next();
+            if (now - entry.idleSince < idleTimeoutNanos) {
+                break;
+            }
+            if (idle.removeLastOccurrence(entry)) {
+                entry.member.close();
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Closes every idle member. Members that are currently borrowed are closed when they are released.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        IdleMember entry;
+        while ((entry = idle.pollLast()) != null) {
+            entry.member.close();
+            evicted.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        clear();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long n = acquisitions.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * One row of Customer, as streamed by BoutiqueCoffee.streamCustomers.
+ */
+public class Customer {
+    private final int customerId;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final int memberLevelId;
+    private final double totalPoints;
+
+    Customer(int customerId, String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        this.customerId = customerId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.memberLevelId = memberLevelId;
+        this.totalPoints = totalPoints;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public int getMemberLevelId() {
+        return memberLevelId;
+    }
+
+    public double getTotalPoints() {
+        return totalPoints;
+    }
+}
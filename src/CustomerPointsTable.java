@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Total points and member level of every customer, answering getPointsByCustomerId without a query.
+ * The table is an open addressing hash table with linear probing, kept off heap in a direct ByteBuffer so millions
+ * of customers cost neither boxed objects nor garbage collection work. Each slot holds
+ * customer id (int, 0 when empty) | member level id (int) | total points (double).
+ * Lookups allocate nothing. It is loaded in bulk from Customer and kept current by the purchases made through
+ * BoutiqueCoffee, so points changed by other processes are only seen after the next reload. Purchases the load's
+ * snapshot already saw are not added again, even when they are reported after the load.
+ */
+class CustomerPointsTable {
+    private static final int SLOT_SIZE = 16;
+    private static final int LEVEL_OFFSET = 4;
+    private static final int POINTS_OFFSET = 8;
+    private static final int MIN_CAPACITY = 1 << 10;
+
+    private ByteBuffer slots;
+    private int mask;
+    private int size;
+    private boolean loaded;
+    private TransactionSnapshot loaded_from;
+
+    CustomerPointsTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @param snapshot - the snapshot the customers were read in
+     */
+    synchronized void markLoaded(TransactionSnapshot snapshot) {
+        loaded = true;
+        loaded_from = snapshot;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Empties the table; it has to be reloaded before it answers again.
+     */
+    synchronized void clear() {
+        allocate(MIN_CAPACITY);
+        loaded = false;
+        loaded_from = null;
+    }
+
+    /**
+     * @return the total points of the customer, or NaN if the customer is not in the table
+     */
+    synchronized double getPoints(int customerId) {
+        int slot = find(customerId);
+        return slot < 0 ? Double.NaN : slots.getDouble(slot * SLOT_SIZE + POINTS_OFFSET);
+    }
+
+    /**
+     * @return the member level of the customer, or -1 if the customer is not in the table
+     */
+    synchronized int getMemberLevel(int customerId) {
+        int slot = find(customerId);
+        return slot < 0 ? -1 : slots.getInt(slot * SLOT_SIZE + LEVEL_OFFSET);
+    }
+
+    synchronized void put(int customerId, int memberLevelId, double totalPoints) {
+        // serial ids start at 1, and 0 marks an empty slot
+        if (customerId <= 0) {
+            return;
+        }
+        if (2 * (size + 1) > mask + 1) {
+            resize();
+        }
+        int slot = hash(customerId) & mask;
+        while (slots.getInt(slot * SLOT_SIZE) != 0 && slots.getInt(slot * SLOT_SIZE) != customerId) {
+            slot = (slot + 1) & mask;
+        }
+        if (slots.getInt(slot * SLOT_SIZE) == 0) {
+            size++;
+        }
+        slots.putInt(slot * SLOT_SIZE, customerId);
+        slots.putInt(slot * SLOT_SIZE + LEVEL_OFFSET, memberLevelId);
+        slots.putDouble(slot * SLOT_SIZE + POINTS_OFFSET, totalPoints);
+    }
+
+    /**
+     * Adds the change of points made by a purchase to a customer in the table, unless the table was loaded from a
+     * snapshot that already saw the purchase; customers not in the table are left out.
+     *
+     * @param txid - the transaction that committed the purchase
+     */
+    synchronized void addPoints(long txid, int customerId, double change) {
+        if (!loaded || loaded_from.sees(txid)) {
+            return;
+        }
+        int slot = find(customerId);
+        if (slot >= 0) {
+            int offset = slot * SLOT_SIZE + POINTS_OFFSET;
+            slots.putDouble(offset, slots.getDouble(offset) + change);
+        }
+    }
+
+    synchronized void remove(int customerId) {
+        int slot = find(customerId);
+        if (slot < 0) {
+            return;
+        }
+        // backward shift deletion: move later entries of the probe run into the hole, so no tombstones are needed
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (slots.getInt(next * SLOT_SIZE) != 0) {
+            int home = hash(slots.getInt(next * SLOT_SIZE)) & mask;
+            // the entry may move back only if the hole lies between its home slot and where it is now
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots.putInt(hole * SLOT_SIZE, 0);
+        size--;
+    }
+
+    private int find(int customerId) {
+        if (customerId <= 0) {
+            return -1;
+        }
+        int slot = hash(customerId) & mask;
+        int key;
+        while ((key = slots.getInt(slot * SLOT_SIZE)) != 0) {
+            if (key == customerId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize() {
+        ByteBuffer old = slots;
+        int oldCapacity = mask + 1;
+        allocate(oldCapacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int key = old.getInt(slot * SLOT_SIZE);
+            if (key != 0) {
+                put(key, old.getInt(slot * SLOT_SIZE + LEVEL_OFFSET), old.getDouble(slot * SLOT_SIZE + POINTS_OFFSET));
+            }
+        }
+    }
+
+    private void copySlot(int from, int to) {
+        slots.putInt(to * SLOT_SIZE, slots.getInt(from * SLOT_SIZE));
+        slots.putInt(to * SLOT_SIZE + LEVEL_OFFSET, slots.getInt(from * SLOT_SIZE + LEVEL_OFFSET));
+        slots.putDouble(to * SLOT_SIZE + POINTS_OFFSET, slots.getDouble(from * SLOT_SIZE + POINTS_OFFSET));
+    }
+
+    // serial ids are consecutive, so spread them over the table
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,364 @@
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Seeded generator of a synthetic boutique_coffee data set, loaded through BoutiqueCoffee.bulkLoad.
+ * Customers, stores and coffees are picked by Zipfian popularity, so a few hot customers and stores receive most
+ * purchases, as in production. Purchases are spread over the months before an anchor date with more of them on
+ * weekends and in recent months. The same seed, sizes and anchor always give the same rows, whatever order the
+ * tables are loaded in.
+ * The ID of rank r in every Zipf distribution is r, i.e. ID 1 is the most popular.
+ */
+class DatasetGenerator {
+    static final String[] MEMBER_LEVELS = {"Bronze", "Silver", "Gold", "Platinum"};
+    private static final double[] BOOSTER_FACTORS = {1.0, 1.25, 1.5, 2.0};
+    private static final double[] MEMBER_LEVEL_SHARES = {60, 25, 10, 5};
+    private static final String[] STORE_TYPES = {"cafe", "kiosk", "drive-thru"};
+
+    private static final int OFFERINGS_PER_STORE = 20;
+    private static final int MAX_LINES_PER_PURCHASE = 4;
+
+    private final long seed;
+    private final int customers;
+    private final int stores;
+    private final int coffees;
+    private final int purchases;
+    private final int months;
+    private final LocalDate anchor;
+
+    private final Sampler customer_popularity;
+    private final Sampler store_popularity;
+    private final Sampler coffee_popularity;
+    private final Sampler offering_popularity;
+    private final Sampler member_levels;
+    private final Sampler days;
+    // coffees offered by each store, most popular first
+    private final int[][] offerings;
+    private final int promotions;
+
+    /**
+     * @param skew   - Zipf exponent of the popularity distributions, 0 for uniform
+     * @param months - the purchases are spread over this many 30 day months before the anchor
+     * @param anchor - the day of the latest purchases; the rankings look back from today, so it is usually today
+     */
+    DatasetGenerator(long seed, int customers, int stores, int coffees, int purchases, int months, double skew,
+                     LocalDate anchor) {
+        if (customers <= 0 || stores <= 0 || coffees <= 0 || purchases < 0 || months <= 0) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        this.seed = seed;
+        this.customers = customers;
+        this.stores = stores;
+        this.coffees = coffees;
+        this.purchases = purchases;
+        this.months = months;
+        this.anchor = anchor;
+
+        customer_popularity = Sampler.zipf(customers, skew);
+        store_popularity = Sampler.zipf(stores, skew);
+        coffee_popularity = Sampler.zipf(coffees, skew);
+        offering_popularity = Sampler.zipf(Math.min(OFFERINGS_PER_STORE, coffees), skew);
+        member_levels = new Sampler(MEMBER_LEVEL_SHARES);
+
+        // weekends are busier, and business grows by half over the whole period
+        double[] dayWeights = new double[30 * months];
+        for (int d = 0; d < dayWeights.length; d++) {
+            DayOfWeek weekday = day(d).getDayOfWeek();
+            boolean weekend = weekday == DayOfWeek.SATURDAY || weekday == DayOfWeek.SUNDAY;
+            dayWeights[d] = (weekend ? 1.3 : 1.0) * (1.0 + 0.5 * (dayWeights.length - d) / dayWeights.length);
+        }
+        days = new Sampler(dayWeights);
+
+        SplittableRandom random = random(1);
+        offerings = new int[stores][];
+        for (int s = 0; s < stores; s++) {
+            Set<Integer> offered = new LinkedHashSet<Integer>();
+            while (offered.size() < Math.min(OFFERINGS_PER_STORE, coffees)) {
+                offered.add(coffee_popularity.sample(random.nextDouble()));
+            }
+            offerings[s] = offered.stream().mapToInt(Integer::intValue).toArray();
+        }
+        promotions = 3 * months;
+    }
+
+    /**
+     * A data set of the given number of purchases, with customers, stores and coffees scaled to it.
+     */
+    static DatasetGenerator ofScale(long seed, int purchases, LocalDate anchor) {
+        return new DatasetGenerator(seed, Math.max(purchases / 20, 100), Math.max(purchases / 2000, 10),
+                Math.max(Math.min(purchases / 1000, 2000), 50), purchases, 12, 1.0, anchor);
+    }
+
+    int getCustomers() {
+        return customers;
+    }
+
+    int getStores() {
+        return stores;
+    }
+
+    int getCoffees() {
+        return coffees;
+    }
+
+    int getPromotions() {
+        return promotions;
+    }
+
+    int getPurchases() {
+        return purchases;
+    }
+
+    LocalDate getAnchor() {
+        return anchor;
+    }
+
+    /**
+     * @param uniform - uniformly distributed in [0, 1)
+     * @return a customer ID drawn by popularity
+     */
+    int drawCustomer(double uniform) {
+        return customer_popularity.sample(uniform);
+    }
+
+    int drawStore(double uniform) {
+        return store_popularity.sample(uniform);
+    }
+
+    int drawCoffee(double uniform) {
+        return coffee_popularity.sample(uniform);
+    }
+
+    /**
+     * @return the rows of every table, generated as they are loaded
+     */
+    List<BulkSource> sources() {
+        List<BulkSource> sources = new ArrayList<BulkSource>();
+        sources.add(BulkSource.rows("memberlevel", new String[]{"memberlevel_id", "name", "booster_factor"},
+                rows(MEMBER_LEVELS.length, i -> new Object[]{i, MEMBER_LEVELS[i - 1], BOOSTER_FACTORS[i - 1]})));
+
+        sources.add(BulkSource.rows("store", new String[]{"store_id", "name", "address", "store_type", "gps_long", "gps_lat"},
+                rows(stores, i -> {
+                    SplittableRandom random = random(2, i);
+                    return new Object[]{i, "Store " + i, i + " Forbes Ave", STORE_TYPES[random.nextInt(STORE_TYPES.length)],
+                            -80.1 + random.nextDouble() * 0.4, 40.3 + random.nextDouble() * 0.3};
+                })));
+
+        sources.add(BulkSource.rows("coffee", new String[]{"coffee_id", "name", "description", "intensity", "price",
+                        "reward_points", "redeem_points"},
+                rows(coffees, i -> {
+                    SplittableRandom random = random(3, i);
+                    return new Object[]{i, "Coffee " + i, "Blend " + i, 1 + random.nextInt(12),
+                            2.5 + random.nextInt(40) * 0.125, 5 + random.nextInt(20), 50 + random.nextInt(100)};
+                })));
+
+        sources.add(BulkSource.rows("offercoffee", new String[]{"store_id", "coffee_id"},
+                rows(stores * offerings[0].length, i -> {
+                    int s = (i - 1) / offerings[0].length;
+                    return new Object[]{s + 1, offerings[s][(i - 1) % offerings[0].length]};
+                })));
+
+        sources.add(BulkSource.rows("promotion", new String[]{"promotion_id", "name", "start_date", "end_date"},
+                rows(promotions, i -> {
+                    LocalDate start = day(30 * months - 1 - (i - 1) * 10);
+                    return new Object[]{i, "Promotion " + i, Date.valueOf(start), Date.valueOf(start.plusDays(14))};
+                })));
+
+        sources.add(BulkSource.rows("promotefor", new String[]{"promotion_id", "coffee_id"},
+                relation(promotions, 3, 4, coffee_popularity)));
+
+        sources.add(BulkSource.rows("haspromotion", new String[]{"store_id", "promotion_id"},
+                flip(relation(promotions, Math.max(stores / 10, 1), 5, store_popularity))));
+
+        sources.add(BulkSource.rows("customer", new String[]{"customer_id", "first_name", "last_name", "email",
+                        "memberlevel_id", "total_points"},
+                rows(customers, i -> {
+                    SplittableRandom random = random(6, i);
+                    return new Object[]{i, "First " + i, "Last " + i, "c" + i + "@pitt.edu",
+                            member_levels.sample(random.nextDouble()), (double) random.nextInt(2000)};
+                })));
+
+        sources.add(BulkSource.rows("purchase", new String[]{"purchase_id", "customer_id", "store_id", "purchase_time"},
+                rows(purchases, i -> {
+                    Purchase purchase = purchase(i);
+                    return new Object[]{i, purchase.customer, purchase.store, purchase.time};
+                })));
+
+        sources.add(BulkSource.rows("buycoffee", new String[]{"purchase_id", "coffee_id", "purchase_quantity",
+                        "redeem_quantity", "purchase_time"},
+                lines()));
+        return sources;
+    }
+
+    private static class Purchase {
+        int customer;
+        int store;
+        Date time;
+        int[] coffees;
+        int[] quantities;
+    }
+
+    // every purchase draws from its own random stream, so Purchase and BuyCoffee rows agree
+    private Purchase purchase(int id) {
+        SplittableRandom random = random(7, id);
+        Purchase purchase = new Purchase();
+        purchase.customer = customer_popularity.sample(random.nextDouble());
+        purchase.store = store_popularity.sample(random.nextDouble());
+        purchase.time = Date.valueOf(day(days.sample(random.nextDouble()) - 1));
+
+        int[] offered = offerings[purchase.store - 1];
+        int lineCount = 1 + random.nextInt(Math.min(MAX_LINES_PER_PURCHASE, offered.length));
+        Set<Integer> bought = new LinkedHashSet<Integer>();
+        while (bought.size() < lineCount) {
+            bought.add(offered[offering_popularity.sample(random.nextDouble()) - 1]);
+        }
+        purchase.coffees = bought.stream().mapToInt(Integer::intValue).toArray();
+        purchase.quantities = new int[lineCount];
+        for (int l = 0; l < lineCount; l++) {
+            purchase.quantities[l] = 1 + (random.nextInt(10) == 0 ? random.nextInt(5) : 0);
+        }
+        return purchase;
+    }
+
+    private Iterator<Object[]> lines() {
+        return new Iterator<Object[]>() {
+            private int next_purchase = 1;
+            private Purchase purchase;
+            private int line;
+
+            @Override
+            public boolean hasNext() {
+                return (purchase != null && line < purchase.coffees.length) || next_purchase <= purchases;
+            }
+
+            @Override
+            public Object[] next() {
+                if (purchase == null || line >= purchase.coffees.length) {
+                    if (next_purchase > purchases) {
+                        throw new NoSuchElementException();
+                    }
+                    purchase = purchase(next_purchase++);
+                    line = 0;
+                }
+                Object[] row = {next_purchase - 1, purchase.coffees[line], purchase.quantities[line], 0, purchase.time};
+                line++;
+                return row;
+            }
+        };
+    }
+
+    // for each of count owners, 1..maxPerOwner distinct members drawn by popularity: rows of (owner, member)
+    private Iterator<Object[]> relation(int count, int maxPerOwner, int salt, Sampler popularity) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int owner = 1; owner <= count; owner++) {
+            SplittableRandom random = random(salt, owner);
+            int size = 1 + random.nextInt(Math.min(maxPerOwner, popularity.size()));
+            Set<Integer> members = new LinkedHashSet<Integer>();
+            while (members.size() < size) {
+                members.add(popularity.sample(random.nextDouble()));
+            }
+            for (int member : members) {
+                rows.add(new Object[]{owner, member});
+            }
+        }
+        return rows.iterator();
+    }
+
+    private static Iterator<Object[]> flip(Iterator<Object[]> rows) {
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                Object[] row = rows.next();
+                return new Object[]{row[1], row[0]};
+            }
+        };
+    }
+
+    // rows 1..count, generated as they are copied
+    private static Iterator<Object[]> rows(int count, IntFunction<Object[]> row) {
+        return new Iterator<Object[]>() {
+            private int next = 1;
+
+            @Override
+            public boolean hasNext() {
+                return next <= count;
+            }
+
+            @Override
+            public Object[] next() {
+                if (next > count) {
+                    throw new NoSuchElementException();
+                }
+                return row.apply(next++);
+            }
+        };
+    }
+
+    // day d counts back from the anchor, 0 being the anchor
+    private LocalDate day(int d) {
+        return anchor.minusDays(d);
+    }
+
+    private SplittableRandom random(int salt) {
+        return new SplittableRandom(seed * 31 + salt);
+    }
+
+    private SplittableRandom random(int salt, int id) {
+        return new SplittableRandom((seed * 31 + salt) * 0x9E3779B97F4A7C15L + id);
+    }
+
+    /**
+     * Draws 1..n with probabilities proportional to fixed weights, by binary search over their cumulative sums.
+     */
+    static class Sampler {
+        private final double[] cumulative;
+
+        Sampler(double[] weights) {
+            cumulative = new double[weights.length];
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < cumulative.length; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        static Sampler zipf(int n, double exponent) {
+            double[] weights = new double[n];
+            for (int rank = 1; rank <= n; rank++) {
+                weights[rank - 1] = 1 / Math.pow(rank, exponent);
+            }
+            return new Sampler(weights);
+        }
+
+        int size() {
+            return cumulative.length;
+        }
+
+        /**
+         * @param uniform - uniformly distributed in [0, 1)
+         */
+        int sample(double uniform) {
+            int i = Arrays.binarySearch(cumulative, uniform);
+            i = i >= 0 ? i + 1 : -i - 1;
+            return Math.min(i, cumulative.length - 1) + 1;
+        }
+    }
+}
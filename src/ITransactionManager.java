@@ -1,5 +1,6 @@
 import java.sql.Date;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 public interface ITransactionManager {
     /**
@@ -55,16 +56,43 @@ public interface ITransactionManager {
      */
     public int addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds, List<Integer> purchaseQuantities, List<Integer> redeemQuantities);
 
+    /**
+     * @param purchases - purchases to add, each with the same arguments as addPurchase
+     * @return one result per purchase, in the same order, holding either the auto generated ID of the purchase or the reason it failed
+     * <p>Notes:
+     * <ul>
+     * <li> Many purchases are grouped into each transaction, but a failing purchase does not prevent the others from being added</li>
+     * </ul>
+     * </p>
+     */
+    public List<PurchaseResult> addPurchases(List<PurchaseRequest> purchases);
+
     /**
      * @return a list of ID's of all cofees in the database. It returns an empty list if no coffee is in the database
      */
     public List<Integer> getCoffees();
 
+    /**
+     * Same as getCoffees, but passes each ID to the sink as it is read instead of collecting them in a list.
+     *
+     * @param sink - receives the ID's, e.g. an IntList
+     * @return the number of ID's passed to the sink or -1 if the operation failed, in which case the sink may already have received some of them
+     */
+    public int getCoffees(IntConsumer sink);
+
     /**
      * @return a list of ID's of all coffees, each of which has both keywords in its name, in the database. It returns an empty list if no coffee satisfying the conditions is in the database or the operation failed
      */
     public List<Integer> getCoffeesByKeywords(String keyword1, String keyword2);
 
+    /**
+     * Same as getCoffeesByKeywords, but passes each ID to the sink as it is read instead of collecting them in a list.
+     *
+     * @param sink - receives the ID's, e.g. an IntList
+     * @return the number of ID's passed to the sink or -1 if the operation failed, in which case the sink may already have received some of them
+     */
+    public int getCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink);
+
     /**
      * @return the total points of the customer identified by the customerId or -1 if the operation is not possible or failed
      */
@@ -86,6 +114,14 @@ public interface ITransactionManager {
      */
     public List<Integer> getTopKStoresInPastXMonth(int k, int x);
 
+    /**
+     * Same as getTopKStoresInPastXMonth, but passes each ID to the sink in ranking order instead of collecting them in a list.
+     *
+     * @param sink - receives the ID's, e.g. an IntList
+     * @return the number of ID's passed to the sink or -1 if the operation failed, in which case the sink may already have received some of them
+     */
+    public int getTopKStoresInPastXMonth(int k, int x, IntConsumer sink);
+
     /**
      * @param k - the size of the rankings
      * @param x - the timespan in months
@@ -100,4 +136,12 @@ public interface ITransactionManager {
      * </p>
      */
     public List<Integer> getTopKCustomersInPastXMonth(int k, int x);
+
+    /**
+     * Same as getTopKCustomersInPastXMonth, but passes each ID to the sink in ranking order instead of collecting them in a list.
+     *
+     * @param sink - receives the ID's, e.g. an IntList
+     * @return the number of ID's passed to the sink or -1 if the operation failed, in which case the sink may already have received some of them
+     */
+    public int getTopKCustomersInPastXMonth(int k, int x, IntConsumer sink);
 }
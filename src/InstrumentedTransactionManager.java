@@ -0,0 +1,339 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ITransactionManager decorator that records, per method, a latency histogram, the number of calls, errors and
+ * rollbacks, and how often each SQLState caused an error. The statistics are published as one MXBean per method,
+ * named bc:type=ITransactionManager,name=&lt;name&gt;,method=&lt;method&gt;. Recording takes two clock reads and a
+ * few uncontended atomic adds, so it can stay on in production.
+ * <p>Errors and rollbacks are read from the per thread outcomes of BoutiqueCoffee, so the delegate must run each
+ * call on the calling thread, as BoutiqueCoffee and PooledBoutiqueCoffee do.</p>
+ */
+class InstrumentedTransactionManager implements ITransactionManager {
+    public interface MethodStatsMXBean {
+        long getCalls();
+
+        long getErrors();
+
+        long getRollbacks();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+
+        // SQLState -> errors with it
+        Map<String, Long> getSqlStates();
+    }
+
+    static class MethodStats implements MethodStatsMXBean {
+        private final String method;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rollbacks = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> sql_states = new ConcurrentHashMap<String, LongAdder>();
+
+        MethodStats(String method) {
+            this.method = method;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        public long getCalls() {
+            return latencies.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRollbacks() {
+            return rollbacks.sum();
+        }
+
+        public double getMeanMillis() {
+            return latencies.getMeanMicros() / 1000;
+        }
+
+        public double getP50Millis() {
+            return latencies.getPercentileMicros(50) / 1000.0;
+        }
+
+        public double getP99Millis() {
+            return latencies.getPercentileMicros(99) / 1000.0;
+        }
+
+        public double getP999Millis() {
+            return latencies.getPercentileMicros(99.9) / 1000.0;
+        }
+
+        public double getMaxMillis() {
+            return latencies.getMaxMicros() / 1000.0;
+        }
+
+        public Map<String, Long> getSqlStates() {
+            Map<String, Long> states = new TreeMap<String, Long>();
+            for (Map.Entry<String, LongAdder> state : sql_states.entrySet()) {
+                states.put(state.getKey(), state.getValue().sum());
+            }
+            return states;
+        }
+
+        private void record(long nanos, boolean failed, long[] before, long[] after) {
+            latencies.recordNanos(nanos);
+            if (after[BoutiqueCoffee.ROLLBACKS] != before[BoutiqueCoffee.ROLLBACKS]) {
+                rollbacks.increment();
+            }
+            // a call that failed and was then retried successfully has its SQLState cleared
+            String state = after[BoutiqueCoffee.FAILURES] != before[BoutiqueCoffee.FAILURES]
+                    ? BoutiqueCoffee.peekLastSqlState() : null;
+            if (failed || state != null) {
+                errors.increment();
+                sql_states.computeIfAbsent(state == null ? "none" : state, s -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    private final ITransactionManager db;
+    private final String name;
+    private final Map<String, MethodStats> stats = new LinkedHashMap<String, MethodStats>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private final MethodStats add_store = stats("addStore");
+    private final MethodStats add_coffee = stats("addCoffee");
+    private final MethodStats offer_coffee = stats("offerCoffee");
+    private final MethodStats add_promotion = stats("addPromotion");
+    private final MethodStats promote_for = stats("promoteFor");
+    private final MethodStats has_promotion = stats("hasPromotion");
+    private final MethodStats add_member_level = stats("addMemberLevel");
+    private final MethodStats add_customer = stats("addCustomer");
+    private final MethodStats add_purchase = stats("addPurchase");
+    private final MethodStats add_purchases = stats("addPurchases");
+    private final MethodStats get_coffees = stats("getCoffees");
+    private final MethodStats get_coffees_by_keywords = stats("getCoffeesByKeywords");
+    private final MethodStats get_points = stats("getPointsByCustomerId");
+    private final MethodStats top_stores = stats("getTopKStoresInPastXMonth");
+    private final MethodStats top_customers = stats("getTopKCustomersInPastXMonth");
+
+    /**
+     * @param db   - the ITransactionManager measured
+     * @param name - distinguishes the MXBeans of this instance from those of others
+     */
+    InstrumentedTransactionManager(ITransactionManager db, String name) {
+        this.db = db;
+        this.name = name;
+    }
+
+    private MethodStats stats(String method) {
+        MethodStats methodStats = new MethodStats(method);
+        stats.put(method, methodStats);
+        return methodStats;
+    }
+
+    /**
+     * Registers one MXBean per method with the platform MBean server.
+     */
+    synchronized void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (MethodStats methodStats : stats.values()) {
+            ObjectName objectName = new ObjectName("bc:type=ITransactionManager,name=" + ObjectName.quote(name)
+                    + ",method=" + methodStats.getMethod());
+            server.registerMBean(methodStats, objectName);
+            registered.add(objectName);
+        }
+    }
+
+    synchronized void unregisterMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @return the statistics of a method, or null if it is not an ITransactionManager method
+     */
+    MethodStats getStats(String method) {
+        return stats.get(method);
+    }
+
+    /**
+     * Prints the statistics of every method called so far. Latencies are in milliseconds.
+     */
+    void report(PrintStream out) {
+        out.printf("%-30s %9s %9s %9s %9s %9s %9s %9s  %s%n", "method", "calls", "errors", "rollbacks", "mean",
+                "p99", "p99.9", "max", "SQLStates");
+        for (MethodStats methodStats : stats.values()) {
+            if (methodStats.getCalls() == 0) {
+                continue;
+            }
+            out.printf("%-30s %9d %9d %9d %9.2f %9.2f %9.2f %9.2f  %s%n", methodStats.getMethod(),
+                    methodStats.getCalls(), methodStats.getErrors(), methodStats.getRollbacks(),
+                    methodStats.getMeanMillis(), methodStats.getP99Millis(), methodStats.getP999Millis(),
+                    methodStats.getMaxMillis(), methodStats.getSqlStates());
+        }
+    }
+
+    // -1 is the failure result of every int returning method
+    private static int measure(MethodStats methodStats, IntSupplier call) {
+        long[] outcomes = BoutiqueCoffee.threadOutcomes();
+        long[] before = outcomes.clone();
+        long start = System.nanoTime();
+        int result = -1;
+        try {
+            result = call.getAsInt();
+        } finally {
+            methodStats.record(System.nanoTime() - start, result == -1, before, outcomes);
+        }
+        return result;
+    }
+
+    private static double measure(MethodStats methodStats, DoubleSupplier call) {
+        long[] outcomes = BoutiqueCoffee.threadOutcomes();
+        long[] before = outcomes.clone();
+        long start = System.nanoTime();
+        double result = -1;
+        try {
+            result = call.getAsDouble();
+        } finally {
+            methodStats.record(System.nanoTime() - start, result == -1, before, outcomes);
+        }
+        return result;
+    }
+
+    // lists are empty both on failure and when nothing matches, so only exceptions and SQL errors count
+    private static <T> T measure(MethodStats methodStats, Supplier<T> call) {
+        long[] outcomes = BoutiqueCoffee.threadOutcomes();
+        long[] before = outcomes.clone();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            methodStats.record(System.nanoTime() - start, failed, before, outcomes);
+        }
+    }
+
+    @Override
+    public int addStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
+        return measure(add_store, () -> db.addStore(name, address, storeType, gpsLong, gpsLat));
+    }
+
+    @Override
+    public int addCoffee(String name, String description, int intensity, double price, double rewardPoints, double redeemPoints) {
+        return measure(add_coffee, () -> db.addCoffee(name, description, intensity, price, rewardPoints, redeemPoints));
+    }
+
+    @Override
+    public int offerCoffee(int storeId, int coffeeId) {
+        return measure(offer_coffee, () -> db.offerCoffee(storeId, coffeeId));
+    }
+
+    @Override
+    public int addPromotion(String name, Date startDate, Date endDate) {
+        return measure(add_promotion, () -> db.addPromotion(name, startDate, endDate));
+    }
+
+    @Override
+    public int promoteFor(int promotionId, int coffeeId) {
+        return measure(promote_for, () -> db.promoteFor(promotionId, coffeeId));
+    }
+
+    @Override
+    public int hasPromotion(int storeId, int promotionId) {
+        return measure(has_promotion, () -> db.hasPromotion(storeId, promotionId));
+    }
+
+    @Override
+    public int addMemberLevel(String name, double boosterFactor) {
+        return measure(add_member_level, () -> db.addMemberLevel(name, boosterFactor));
+    }
+
+    @Override
+    public int addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        return measure(add_customer, () -> db.addCustomer(firstName, lastName, email, memberLevelId, totalPoints));
+    }
+
+    @Override
+    public int addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds, List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        return measure(add_purchase, () -> db.addPurchase(customerId, storeId, purchaseTime, coffeeIds,
+                purchaseQuantities, redeemQuantities));
+    }
+
+    @Override
+    public List<PurchaseResult> addPurchases(List<PurchaseRequest> purchases) {
+        return measure(add_purchases, () -> db.addPurchases(purchases));
+    }
+
+    @Override
+    public List<Integer> getCoffees() {
+        return measure(get_coffees, () -> db.getCoffees());
+    }
+
+    @Override
+    public int getCoffees(IntConsumer sink) {
+        return measure(get_coffees, () -> db.getCoffees(sink));
+    }
+
+    @Override
+    public List<Integer> getCoffeesByKeywords(String keyword1, String keyword2) {
+        return measure(get_coffees_by_keywords, () -> db.getCoffeesByKeywords(keyword1, keyword2));
+    }
+
+    @Override
+    public int getCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink) {
+        return measure(get_coffees_by_keywords, () -> db.getCoffeesByKeywords(keyword1, keyword2, sink));
+    }
+
+    @Override
+    public double getPointsByCustomerId(int customerId) {
+        return measure(get_points, () -> db.getPointsByCustomerId(customerId));
+    }
+
+    @Override
+    public List<Integer> getTopKStoresInPastXMonth(int k, int x) {
+        return measure(top_stores, () -> db.getTopKStoresInPastXMonth(k, x));
+    }
+
+    @Override
+    public int getTopKStoresInPastXMonth(int k, int x, IntConsumer sink) {
+        return measure(top_stores, () -> db.getTopKStoresInPastXMonth(k, x, sink));
+    }
+
+    @Override
+    public List<Integer> getTopKCustomersInPastXMonth(int k, int x) {
+        return measure(top_customers, () -> db.getTopKCustomersInPastXMonth(k, x));
+    }
+
+    @Override
+    public int getTopKCustomersInPastXMonth(int k, int x, IntConsumer sink) {
+        return measure(top_customers, () -> db.getTopKCustomersInPastXMonth(k, x, sink));
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.PrintStream;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load driver: worker threads issue a mix of ITransactionManager operations at a fixed target rate.
+ * Operation i is due at start + i / rate whether or not earlier ones have finished, and its latency is measured
+ * from when it was due, not from when a worker got to it. A stalled database therefore shows up in the latencies
+ * of every operation that queued behind the stall, instead of being hidden by workers that stop issuing requests
+ * (coordinated omission). The service time from the actual start is recorded alongside.
+ */
+class LoadDriver {
+    // operation name -> weight in the mix
+    static final String DEFAULT_MIX = "getPointsByCustomerId=30,getCoffeesByKeywords=15,getCoffees=5,"
+            + "getTopKStoresInPastXMonth=5,getTopKCustomersInPastXMonth=5,addPurchase=30,addCustomer=5,"
+            + "offerCoffee=5";
+
+    private interface Call {
+        /**
+         * @return whether the operation reported success
+         */
+        boolean run(ITransactionManager db, ThreadLocalRandom random);
+    }
+
+    private static class Operation {
+        final String name;
+        final Call call;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong serialization_failures = new AtomicLong();
+
+        Operation(String name, Call call) {
+            this.name = name;
+            this.call = call;
+        }
+    }
+
+    private final ITransactionManager db;
+    private final int threads;
+    private final double rate;
+    private final DatasetGenerator dataset;
+    private final List<Operation> operations = new ArrayList<Operation>();
+    private final int[] cumulative_weights;
+
+    /**
+     * @param db      - shared by the workers, so it must be thread safe, e.g. a PooledBoutiqueCoffee
+     * @param threads - number of worker threads
+     * @param rate    - target operations per second over all workers
+     * @param dataset - the data set loaded in the database; ID's are drawn with its popularity
+     * @param mix     - comma separated operation=weight pairs, see DEFAULT_MIX
+     */
+    LoadDriver(ITransactionManager db, int threads, double rate, DatasetGenerator dataset, String mix) {
+        if (threads <= 0 || rate <= 0) {
+            throw new IllegalArgumentException("threads and rate must be positive");
+        }
+        this.db = db;
+        this.threads = threads;
+        this.rate = rate;
+        this.dataset = dataset;
+
+        Map<String, Call> calls = calls();
+        List<Integer> weights = new ArrayList<Integer>();
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            Call call = calls.get(pair[0]);
+            if (call == null || pair.length != 2) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + entry + ", expected one of " + calls.keySet());
+            }
+            int weight = Integer.parseInt(pair[1]);
+            if (weight > 0) {
+                operations.add(new Operation(pair[0], call));
+                weights.add(weight);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix");
+        }
+        cumulative_weights = new int[weights.size()];
+        int sum = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            sum += weights.get(i);
+            cumulative_weights[i] = sum;
+        }
+    }
+
+    private Map<String, Call> calls() {
+        Map<String, Call> calls = new LinkedHashMap<String, Call>();
+        calls.put("getCoffees", (db, r) -> db.getCoffees(value -> { }) != -1);
+        calls.put("getCoffeesByKeywords", (db, r) -> db.getCoffeesByKeywords("Coffee", "" + coffee(r), value -> { }) != -1);
+        calls.put("getPointsByCustomerId", (db, r) -> db.getPointsByCustomerId(customer(r)) != -1);
+        calls.put("getTopKStoresInPastXMonth", (db, r) -> db.getTopKStoresInPastXMonth(1 + r.nextInt(10), 1 + r.nextInt(12), value -> { }) != -1);
+        calls.put("getTopKCustomersInPastXMonth", (db, r) -> db.getTopKCustomersInPastXMonth(1 + r.nextInt(10), 1 + r.nextInt(12), value -> { }) != -1);
+        calls.put("addPurchase", (db, r) -> db.addPurchase(customer(r), store(r), Date.valueOf(LocalDate.now().minusDays(r.nextInt(365))),
+                Arrays.asList(coffee(r)), Arrays.asList(1 + r.nextInt(3)), Arrays.asList(0)) != -1);
+        calls.put("addCustomer", (db, r) -> db.addCustomer("Load", "Driver", "load@pitt.edu",
+                1 + r.nextInt(DatasetGenerator.MEMBER_LEVELS.length), 0) != -1);
+        calls.put("addCoffee", (db, r) -> db.addCoffee("Coffee load", "Description", 11, 7.79, 80, 100) != -1);
+        calls.put("addStore", (db, r) -> db.addStore("Store load", "Address", "Store Type", 4.12, 2.25) != -1);
+        // popular pairs exist already, so these mostly measure failed inserts
+        calls.put("offerCoffee", (db, r) -> db.offerCoffee(store(r), coffee(r)) != -1);
+        calls.put("promoteFor", (db, r) -> db.promoteFor(promotion(r), coffee(r)) != -1);
+        calls.put("hasPromotion", (db, r) -> db.hasPromotion(store(r), promotion(r)) != -1);
+        return calls;
+    }
+
+    private int customer(ThreadLocalRandom random) {
+        return dataset.drawCustomer(random.nextDouble());
+    }
+
+    private int store(ThreadLocalRandom random) {
+        return dataset.drawStore(random.nextDouble());
+    }
+
+    private int coffee(ThreadLocalRandom random) {
+        return dataset.drawCoffee(random.nextDouble());
+    }
+
+    private int promotion(ThreadLocalRandom random) {
+        return 1 + random.nextInt(dataset.getPromotions());
+    }
+
+    /**
+     * Runs the mix for the given time and returns once every due operation has finished.
+     */
+    void run(long seconds) throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong next = new AtomicLong();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int w = 0; w < threads; w++) {
+            Thread worker = new Thread(() -> work(start, end, intervalNanos, next), "load-driver-" + w);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void work(long start, long end, long intervalNanos, AtomicLong next) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            long due = start + next.getAndIncrement() * intervalNanos;
+            if (due >= end) {
+                return;
+            }
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Operation operation = pick(random);
+            BoutiqueCoffee.takeLastSqlState();
+            long began = System.nanoTime();
+            boolean success;
+            try {
+                success = operation.call.run(db, random);
+            } catch (RuntimeException e) {
+                success = false;
+            }
+            long finished = System.nanoTime();
+
+            operation.latency.recordNanos(finished - due);
+            operation.service.recordNanos(finished - began);
+            String state = BoutiqueCoffee.takeLastSqlState();
+            if (!success || state != null) {
+                operation.errors.incrementAndGet();
+            }
+            if (RetryPolicy.isRetryable(state)) {
+                operation.serialization_failures.incrementAndGet();
+            }
+        }
+    }
+
+    private Operation pick(ThreadLocalRandom random) {
+        int ticket = random.nextInt(cumulative_weights[cumulative_weights.length - 1]);
+        int i = 0;
+        while (cumulative_weights[i] <= ticket) {
+            i++;
+        }
+        return operations.get(i);
+    }
+
+    /**
+     * Prints throughput, latency percentiles from the due time, the service time p99 and failure rates per
+     * operation. Latencies are in milliseconds.
+     */
+    void report(PrintStream out, long seconds) {
+        out.printf("%-30s %9s %9s %9s %9s %9s %9s %11s %8s %8s%n", "operation", "count", "ops/s", "p50", "p99",
+                "p99.9", "max", "service p99", "errors", "serial.");
+        for (Operation operation : operations) {
+            long count = operation.latency.getCount();
+            out.printf("%-30s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %11.2f %7.2f%% %7.2f%%%n", operation.name, count,
+                    (double) count / seconds,
+                    operation.latency.getPercentileMicros(50) / 1000.0,
+                    operation.latency.getPercentileMicros(99) / 1000.0,
+                    operation.latency.getPercentileMicros(99.9) / 1000.0,
+                    operation.latency.getMaxMicros() / 1000.0,
+                    operation.service.getPercentileMicros(99) / 1000.0,
+                    percent(operation.errors.get(), count),
+                    percent(operation.serialization_failures.get(), count));
+        }
+    }
+
+    private static double percent(long part, long count) {
+        return count == 0 ? 0 : 100.0 * part / count;
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the plans of slow calls. When a call's query takes longer than the threshold, a sample of them is run
+ * again under EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) on a side connection, so the caller neither waits for it nor
+ * has its transaction disturbed, and the plan is kept in a ring buffer of the most recent ones.
+ * <p>The query explained is the one the call ran; the top-K functions are plain SQL functions the planner inlines,
+ * so their plans show the query in the function body. Only reads are explained, and inside a read only
+ * transaction that is rolled back.</p>
+ */
+class PlanCapture implements AutoCloseable {
+    static final int DEFAULT_CAPACITY = 64;
+    // plans waiting for the side connection; more slow calls than this at once are not sampled
+    private static final int PENDING = 16;
+    private static final int EXPLAIN_TIMEOUT_SECONDS = 60;
+
+    static class Plan {
+        final String method;
+        final long captured_at;
+        final double call_millis;
+        final String sql;
+        final String parameters;
+        final String json;
+
+        Plan(String method, long capturedAt, double callMillis, String sql, String parameters, String json) {
+            this.method = method;
+            this.captured_at = capturedAt;
+            this.call_millis = callMillis;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.json = json;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return when the plan was captured, in milliseconds since the epoch
+         */
+        public long getCapturedAt() {
+            return captured_at;
+        }
+
+        public double getCallMillis() {
+            return call_millis;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return the EXPLAIN output, a JSON array holding the plan with its actual times and buffer counts
+         */
+        public String getJson() {
+            return json;
+        }
+    }
+
+    private final BulkLoader.ConnectionFactory factory;
+    private final long threshold_nanos;
+    private final double sample_rate;
+    private final Plan[] plans;
+    private int next;
+    private long stored;
+    private final ThreadPoolExecutor explainer;
+    private Connection conn;
+
+    private final AtomicLong slow_calls = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param factory         - opens the side connection
+     * @param thresholdMillis - calls taking longer are slow
+     * @param sampleRate      - fraction of the slow calls explained, between 0 and 1
+     * @param capacity        - plans kept; older ones are overwritten
+     */
+    PlanCapture(BulkLoader.ConnectionFactory factory, long thresholdMillis, double sampleRate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.factory = factory;
+        this.threshold_nanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sample_rate = sampleRate;
+        this.plans = new Plan[capacity];
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(PENDING), runnable -> {
+            Thread thread = new Thread(runnable, "plan-capture");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> dropped.incrementAndGet());
+    }
+
+    /**
+     * Called after a query: explains it on the side connection if the call was slow and sampled.
+     *
+     * @param elapsedNanos - how long the call took
+     * @param sql          - the query to explain, with ? for its parameters
+     */
+    void offer(String method, long elapsedNanos, String sql, Object... parameters) {
+        if (elapsedNanos <= threshold_nanos) {
+            return;
+        }
+        slow_calls.incrementAndGet();
+        if (ThreadLocalRandom.current().nextDouble() >= sample_rate || explainer.isShutdown()) {
+            return;
+        }
+        double callMillis = elapsedNanos / 1e6;
+        explainer.execute(() -> explain(method, callMillis, sql, parameters));
+    }
+
+    // runs on the explainer thread only, which owns conn
+    private void explain(String method, double callMillis, String sql, Object[] parameters) {
+        try {
+            if (conn == null || conn.isClosed()) {
+                conn = factory.open();
+                conn.setAutoCommit(false);
+                conn.setReadOnly(true);
+            }
+            String json;
+            try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + sql)) {
+                stmt.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+                for (int i = 0; i < parameters.length; i++) {
+                    stmt.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet values = stmt.executeQuery()) {
+                    StringBuilder output = new StringBuilder();
+                    while (values.next()) {
+                        output.append(values.getString(1));
+                    }
+                    json = output.toString();
+                }
+            } finally {
+                conn.rollback();
+            }
+            store(new Plan(method, System.currentTimeMillis(), callMillis, sql, Arrays.toString(parameters), json));
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            closeConnection();
+        }
+    }
+
+    private synchronized void store(Plan plan) {
+        plans[next] = plan;
+        next = (next + 1) % plans.length;
+        stored++;
+    }
+
+    /**
+     * @return the plans kept, oldest first
+     */
+    synchronized List<Plan> getPlans() {
+        List<Plan> kept = new ArrayList<Plan>(plans.length);
+        int count = (int) Math.min(stored, plans.length);
+        for (int i = 0; i < count; i++) {
+            kept.add(plans[(next - count + i + plans.length) % plans.length]);
+        }
+        return kept;
+    }
+
+    long getSlowCalls() {
+        return slow_calls.get();
+    }
+
+    // slow calls sampled while the explainer was already busy with PENDING others
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Writes the plans kept to a file as a JSON array, oldest first.
+     */
+    void dump(Path file) throws IOException {
+        List<Plan> kept = getPlans();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("[");
+            for (int i = 0; i < kept.size(); i++) {
+                Plan plan = kept.get(i);
+                out.println("  {\"method\": " + BenchmarkResults.quote(plan.method) + ", \"captured_at\": "
+                        + plan.captured_at + ", \"call_ms\": " + plan.call_millis + ", \"sql\": "
+                        + BenchmarkResults.quote(plan.sql) + ", \"parameters\": " + BenchmarkResults.quote(plan.parameters)
+                        + ",");
+                out.println("   \"plan\": " + plan.json + "}" + (i + 1 < kept.size() ? "," : ""));
+            }
+            out.println("]");
+        }
+    }
+
+    /**
+     * Stops explaining, waiting for the plans already sampled, and closes the side connection.
+     */
+    @Override
+    public void close() {
+        explainer.shutdown();
+        try {
+            explainer.awaitTermination(EXPLAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // nothing to do, the connection is dropped either way
+            }
+            conn = null;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Thread safe ITransactionManager. Every call borrows a BoutiqueCoffee (and so a connection) from a pool,
+ * so concurrent callers run their transactions on separate connections.
+ */
+class PooledBoutiqueCoffee implements ITransactionManager, AutoCloseable {
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 600000;
+
+    private final ConnectionPool pool;
+    private volatile Consumer<String> error_logger;
+    private volatile TopKRevenueEngine revenue_engine;
+    private volatile CoffeeKeywordIndex keyword_index;
+    private volatile CatalogCache catalog_cache;
+    private volatile CustomerPointsTable points_table;
+    private volatile PlanCapture plan_capture;
+    // one policy for the whole pool, so the retry budgets cover every connection's calls
+    private volatile RetryPolicy retry_policy = new RetryPolicy();
+    private final Map<String, ReadMode> read_modes = BoutiqueCoffee.defaultReadModes();
+    private final BulkLoader.ConnectionFactory side_connections;
+
+    public PooledBoutiqueCoffee(String url, String username, String password, int poolSize,
+                                long acquireTimeoutMillis, long idleTimeoutMillis) throws ClassNotFoundException {
+        // verify that postgresql driver is available
+        Class.forName("org.postgresql.Driver");
+
+        // no error logging by default
+        setErrorLogger(s -> {
+        });
+
+        side_connections = () -> DriverManager.getConnection(url, username, password);
+        pool = new ConnectionPool(() -> {
+            BoutiqueCoffee member = new BoutiqueCoffee(url, username, password);
+            member.setErrorLogger(s -> error_logger.accept(s));
+            return member;
+        }, poolSize, acquireTimeoutMillis, idleTimeoutMillis);
+    }
+
+    public PooledBoutiqueCoffee(String username, String password, int poolSize) throws ClassNotFoundException {
+        this("jdbc:postgresql://localhost/postgres", username, password, poolSize,
+                DEFAULT_ACQUIRE_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public void setErrorLogger(Consumer<String> error_logger) {
+        this.error_logger = error_logger;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Answers the top-k rankings from one in memory engine shared by all pooled connections.
+     */
+    public void enableRevenueEngine(int maxMonths) {
+        revenue_engine = new TopKRevenueEngine(maxMonths);
+        withMember(BoutiqueCoffee::loadRevenueEngine, false);
+    }
+
+    /**
+     * Answers getCoffeesByKeywords from one in memory index shared by all pooled connections.
+     */
+    public void enableKeywordIndex() {
+        keyword_index = new CoffeeKeywordIndex();
+        withMember(BoutiqueCoffee::loadKeywordIndex, false);
+    }
+
+    /**
+     * Caches the catalog in one cache shared by all pooled connections.
+     *
+     * @param preload - whether to load the whole catalog now, in one snapshot
+     */
+    public void enableCatalogCache(boolean preload) {
+        catalog_cache = new CatalogCache();
+        if (preload) {
+            withMember(BoutiqueCoffee::loadCatalogCache, false);
+        }
+    }
+
+    public CatalogCache getCatalogCache() {
+        return catalog_cache;
+    }
+
+    /**
+     * Answers getPointsByCustomerId from one off heap points table shared by all pooled connections.
+     */
+    public void enablePointsTable() {
+        points_table = new CustomerPointsTable();
+        withMember(BoutiqueCoffee::loadPointsTable, false);
+    }
+
+    /**
+     * Explains the queries of slow reads on any pooled connection with one shared capture, see PlanCapture.
+     */
+    public void enableSlowCallCapture(long thresholdMillis, double sampleRate, int capacity) {
+        PlanCapture previous = plan_capture;
+        plan_capture = new PlanCapture(side_connections, thresholdMillis, sampleRate, capacity);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public PlanCapture getPlanCapture() {
+        return plan_capture;
+    }
+
+    /**
+     * Sets how transactions failing on a serialization failure or deadlock are retried; null never retries them.
+     */
+    public void setRetryPolicy(RetryPolicy retry_policy) {
+        this.retry_policy = retry_policy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retry_policy;
+    }
+
+    /**
+     * Chooses how a multi statement read runs its transaction on every pooled connection, see
+     * BoutiqueCoffee.setReadMode.
+     */
+    public void setReadMode(String method, ReadMode mode) {
+        if (!read_modes.containsKey(method) || mode == null) {
+            throw new IllegalArgumentException("No read mode for " + method + ", expected one of " + read_modes.keySet());
+        }
+        read_modes.put(method, mode);
+    }
+
+    public ReadMode getReadMode(String method) {
+        return read_modes.get(method);
+    }
+
+    public CatalogCache.Coffee getCatalogCoffee(int coffeeId) {
+        return withMember(db -> db.getCatalogCoffee(coffeeId), null);
+    }
+
+    public CatalogCache.Store getCatalogStore(int storeId) {
+        return withMember(db -> db.getCatalogStore(storeId), null);
+    }
+
+    public CatalogCache.MemberLevel getCatalogMemberLevel(int memberLevelId) {
+        return withMember(db -> db.getCatalogMemberLevel(memberLevelId), null);
+    }
+
+    public CatalogCache.Promotion getCatalogPromotion(int promotionId) {
+        return withMember(db -> db.getCatalogPromotion(promotionId), null);
+    }
+
+    public boolean isPromoted(int storeId, int coffeeId, Date purchaseTime) {
+        return withMember(db -> db.isPromoted(storeId, coffeeId, purchaseTime), false);
+    }
+
+    /**
+     * Streams through one pooled connection, which is held until the handler is done.
+     */
+    public long streamCoffees(int fetchSize, Predicate<? super CatalogCache.Coffee> handler) {
+        return withMember(db -> db.streamCoffees(fetchSize, handler), -1L);
+    }
+
+    public long streamCustomers(int fetchSize, Predicate<? super Customer> handler) {
+        return withMember(db -> db.streamCustomers(fetchSize, handler), -1L);
+    }
+
+    public long streamPurchaseHistory(int customerId, int fetchSize, Predicate<? super PurchaseLine> handler) {
+        return withMember(db -> db.streamPurchaseHistory(customerId, fetchSize, handler), -1L);
+    }
+
+    public long streamPurchases(int fetchSize, Predicate<? super PurchaseLine> handler) {
+        return withMember(db -> db.streamPurchases(fetchSize, handler), -1L);
+    }
+
+    // gives a member the in memory views shared by the whole pool
+    private void attach(BoutiqueCoffee member) {
+        member.setRevenueEngine(revenue_engine);
+        member.setKeywordIndex(keyword_index);
+        member.setCatalogCache(catalog_cache);
+        member.setPointsTable(points_table);
+        member.setPlanCapture(plan_capture);
+        member.setRetryPolicy(retry_policy);
+        member.setReadModes(read_modes);
+    }
+
+    // also runs the calls of AsyncBoutiqueCoffee
+    <T> T withMember(Function<BoutiqueCoffee, T> work, T failed) {
+        BoutiqueCoffee member;
+        try {
+            member = pool.borrow();
+        } catch (SQLException e) {
+            error_logger.accept("POOL ERROR");
+            error_logger.accept(e.getMessage());
+            return failed;
+        }
+
+        try {
+            attach(member);
+            return work.apply(member);
+        } finally {
+            pool.release(member);
+        }
+    }
+
+    // TRANSACTIONS
+    @Override
+    public int addStore(String name, String address, String storeType, double gpsLong, double gpsLat) {
+        return withMember(db -> db.addStore(name, address, storeType, gpsLong, gpsLat), -1);
+    }
+
+    @Override
+    public int addCoffee(String name, String description, int intensity, double price, double rewardPoints,
+                         double redeemPoints) {
+        return withMember(db -> db.addCoffee(name, description, intensity, price, rewardPoints, redeemPoints), -1);
+    }
+
+    @Override
+    public int offerCoffee(int storeId, int coffeeId) {
+        return withMember(db -> db.offerCoffee(storeId, coffeeId), -1);
+    }
+
+    @Override
+    public int addPromotion(String name, Date startDate, Date endDate) {
+        return withMember(db -> db.addPromotion(name, startDate, endDate), -1);
+    }
+
+    @Override
+    public int promoteFor(int promotionId, int coffeeId) {
+        return withMember(db -> db.promoteFor(promotionId, coffeeId), -1);
+    }
+
+    @Override
+    public int hasPromotion(int storeId, int promotionId) {
+        return withMember(db -> db.hasPromotion(storeId, promotionId), -1);
+    }
+
+    @Override
+    public int addMemberLevel(String name, double boosterFactor) {
+        return withMember(db -> db.addMemberLevel(name, boosterFactor), -1);
+    }
+
+    @Override
+    public int addCustomer(String firstName, String lastName, String email, int memberLevelId, double totalPoints) {
+        return withMember(db -> db.addCustomer(firstName, lastName, email, memberLevelId, totalPoints), -1);
+    }
+
+    @Override
+    public int addPurchase(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                           List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        return withMember(db -> db.addPurchase(customerId, storeId, purchaseTime, coffeeIds, purchaseQuantities,
+                redeemQuantities), -1);
+    }
+
+    @Override
+    public List<PurchaseResult> addPurchases(List<PurchaseRequest> purchases) {
+        List<PurchaseResult> failed = new ArrayList<PurchaseResult>(purchases.size());
+        for (int i = 0; i < purchases.size(); i++) {
+            failed.add(PurchaseResult.failed("No pooled connection available"));
+        }
+        return withMember(db -> db.addPurchases(purchases), failed);
+    }
+
+    @Override
+    public List<Integer> getCoffees() {
+        return withMember(BoutiqueCoffee::getCoffees, new LinkedList<Integer>());
+    }
+
+    @Override
+    public int getCoffees(IntConsumer sink) {
+        return withMember(db -> db.getCoffees(sink), -1);
+    }
+
+    @Override
+    public List<Integer> getCoffeesByKeywords(String keyword1, String keyword2) {
+        return withMember(db -> db.getCoffeesByKeywords(keyword1, keyword2), new LinkedList<Integer>());
+    }
+
+    @Override
+    public int getCoffeesByKeywords(String keyword1, String keyword2, IntConsumer sink) {
+        return withMember(db -> db.getCoffeesByKeywords(keyword1, keyword2, sink), -1);
+    }
+
+    @Override
+    public double getPointsByCustomerId(int customerId) {
+        return withMember(db -> db.getPointsByCustomerId(customerId), -1.0);
+    }
+
+    @Override
+    public List<Integer> getTopKStoresInPastXMonth(int k, int x) {
+        return withMember(db -> db.getTopKStoresInPastXMonth(k, x), new LinkedList<Integer>());
+    }
+
+    @Override
+    public int getTopKStoresInPastXMonth(int k, int x, IntConsumer sink) {
+        return withMember(db -> db.getTopKStoresInPastXMonth(k, x, sink), -1);
+    }
+
+    @Override
+    public List<Integer> getTopKCustomersInPastXMonth(int k, int x) {
+        return withMember(db -> db.getTopKCustomersInPastXMonth(k, x), new LinkedList<Integer>());
+    }
+
+    @Override
+    public int getTopKCustomersInPastXMonth(int k, int x, IntConsumer sink) {
+        return withMember(db -> db.getTopKCustomersInPastXMonth(k, x, sink), -1);
+    }
+
+    public void runSqlScript(String filename) {
+        withMember(db -> {
+            db.runSqlScript(filename);
+            return null;
+        }, null);
+
+        // idle members still hold statements prepared against the old schema
+        pool.clear();
+    }
+
+    public long bulkLoad(List<BulkSource> sources) {
+        return withMember(db -> db.bulkLoad(sources), -1L);
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+        if (plan_capture != null) {
+            plan_capture.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.sql.Date;
+
+/**
+ * One coffee bought by a purchase, i.e. a row of BuyCoffee joined with its Purchase, as streamed by
+ * BoutiqueCoffee.streamPurchaseHistory.
+ */
+public class PurchaseLine {
+    private final int purchaseId;
+    private final int customerId;
+    private final int storeId;
+    private final Date purchaseTime;
+    private final int coffeeId;
+    private final int purchaseQuantity;
+    private final int redeemQuantity;
+
+    PurchaseLine(int purchaseId, int customerId, int storeId, Date purchaseTime, int coffeeId, int purchaseQuantity,
+                 int redeemQuantity) {
+        this.purchaseId = purchaseId;
+        this.customerId = customerId;
+        this.storeId = storeId;
+        this.purchaseTime = purchaseTime;
+        this.coffeeId = coffeeId;
+        this.purchaseQuantity = purchaseQuantity;
+        this.redeemQuantity = redeemQuantity;
+    }
+
+    public int getPurchaseId() {
+        return purchaseId;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public int getStoreId() {
+        return storeId;
+    }
+
+    public Date getPurchaseTime() {
+        return purchaseTime;
+    }
+
+    public int getCoffeeId() {
+        return coffeeId;
+    }
+
+    public int getPurchaseQuantity() {
+        return purchaseQuantity;
+    }
+
+    public int getRedeemQuantity() {
+        return redeemQuantity;
+    }
+}
@@ -0,0 +1,66 @@
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * One purchase to be added through ITransactionManager.addPurchases, with the same arguments as addPurchase.
+ */
+public class PurchaseRequest {
+    private final int customerId;
+    private final int storeId;
+    private final Date purchaseTime;
+    private final List<Integer> coffeeIds;
+    private final List<Integer> purchaseQuantities;
+    private final List<Integer> redeemQuantities;
+
+    public PurchaseRequest(int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                           List<Integer> purchaseQuantities, List<Integer> redeemQuantities) {
+        this.customerId = customerId;
+        this.storeId = storeId;
+        this.purchaseTime = purchaseTime;
+        this.coffeeIds = coffeeIds;
+        this.purchaseQuantities = purchaseQuantities;
+        this.redeemQuantities = redeemQuantities;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public int getStoreId() {
+        return storeId;
+    }
+
+    public Date getPurchaseTime() {
+        return purchaseTime;
+    }
+
+    public List<Integer> getCoffeeIds() {
+        return coffeeIds;
+    }
+
+    public List<Integer> getPurchaseQuantities() {
+        return purchaseQuantities;
+    }
+
+    public List<Integer> getRedeemQuantities() {
+        return redeemQuantities;
+    }
+
+    /**
+     * @return null if the request is well formed, otherwise the reason it can never succeed
+     */
+    String validate() {
+        if (purchaseTime == null || coffeeIds == null || purchaseQuantities == null || redeemQuantities == null) {
+            return "Add Purchase Failed, missing purchase time or coffee lines";
+        }
+        if (coffeeIds.size() != purchaseQuantities.size() || coffeeIds.size() != redeemQuantities.size()) {
+            return "Add Purchase Failed, array inputs are different sizes";
+        }
+        for (int i = 0; i < coffeeIds.size(); i++) {
+            if (coffeeIds.get(i) == null || purchaseQuantities.get(i) == null || redeemQuantities.get(i) == null) {
+                return "Add Purchase Failed, missing coffee, quantity or redeem quantity";
+            }
+        }
+        return null;
+    }
+}
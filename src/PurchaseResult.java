@@ -0,0 +1,43 @@
+/**
+ * Outcome of one PurchaseRequest passed to ITransactionManager.addPurchases.
+ */
+public class PurchaseResult {
+    private final int purchaseId;
+    private final String failureReason;
+
+    private PurchaseResult(int purchaseId, String failureReason) {
+        this.purchaseId = purchaseId;
+        this.failureReason = failureReason;
+    }
+
+    public static PurchaseResult added(int purchaseId) {
+        return new PurchaseResult(purchaseId, null);
+    }
+
+    public static PurchaseResult failed(String failureReason) {
+        return new PurchaseResult(-1, failureReason);
+    }
+
+    public boolean isSuccess() {
+        return failureReason == null;
+    }
+
+    /**
+     * @return the auto generated ID of the purchase or -1 if it failed
+     */
+    public int getPurchaseId() {
+        return purchaseId;
+    }
+
+    /**
+     * @return why the purchase was not added, or null if it succeeded
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "PurchaseResult[" + purchaseId + "]" : "PurchaseResult[failed: " + failureReason + "]";
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * How a multi statement read runs its transaction, chosen per method with BoutiqueCoffee.setReadMode.
+ * <p>A SERIALIZABLE read write transaction takes predicate locks on everything it reads, so a ranking over the
+ * revenue rollups conflicts with the purchases updating them, and one of the two is aborted. A READ ONLY snapshot
+ * sees the same consistent state without predicate locks and never aborts a purchase.</p>
+ */
+public enum ReadMode {
+    /**
+     * REPEATABLE READ READ ONLY: one snapshot, no predicate locks, never fails on a serialization failure.
+     */
+    SNAPSHOT("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ READ ONLY"),
+    /**
+     * SERIALIZABLE READ ONLY DEFERRABLE: waits for a snapshot no concurrent transaction can invalidate, then runs
+     * without predicate locks and cannot fail on a serialization failure. Suits long reports that must be
+     * serializable, at the cost of a wait when they start.
+     */
+    SERIALIZABLE_DEFERRABLE("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE READ ONLY DEFERRABLE"),
+    /**
+     * SERIALIZABLE READ ONLY: serializable with fewer predicate locks than a read write transaction, but may still
+     * fail or cause writers to fail.
+     */
+    SERIALIZABLE_READ_ONLY("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE READ ONLY"),
+    /**
+     * SERIALIZABLE read write, how the rankings ran before there were read modes.
+     */
+    SERIALIZABLE("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE");
+
+    final String sql;
+
+    ReadMode(String sql) {
+        this.sql = sql;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * When and how long to wait before retrying a transaction that failed on a serialization failure (40001) or a
+ * deadlock (40P01), both of which PostgreSQL expects the client to retry.
+ * <p>Attempts are bounded, and the wait before attempt n is drawn uniformly from 0 to base * 2^(n-1) capped at
+ * the maximum, so conflicting clients spread out instead of colliding again. Each method also has a retry budget:
+ * every call adds budgetRatio of a token, up to budgetCapacity, and every retry takes a whole one. Under heavy
+ * contention retries are therefore limited to about budgetRatio of the calls, instead of multiplying the load
+ * that caused the conflicts.</p>
+ */
+class RetryPolicy {
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 5;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+    static final double DEFAULT_BUDGET_RATIO = 0.2;
+    static final int DEFAULT_BUDGET_CAPACITY = 20;
+
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+    // budgets are kept in thousandths of a token
+    private static final long TOKEN = 1000;
+
+    static class MethodRetries {
+        private final AtomicLong budget;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder exhausted = new LongAdder();
+        private final LongAdder over_budget = new LongAdder();
+
+        MethodRetries(long budget) {
+            this.budget = new AtomicLong(budget);
+        }
+
+        long getCalls() {
+            return calls.sum();
+        }
+
+        // attempts that failed on a serialization failure or deadlock
+        long getConflicts() {
+            return conflicts.sum();
+        }
+
+        long getRetries() {
+            return retries.sum();
+        }
+
+        // calls that still conflicted on their last allowed attempt
+        long getExhausted() {
+            return exhausted.sum();
+        }
+
+        // conflicts not retried because the budget was spent
+        long getOverBudget() {
+            return over_budget.sum();
+        }
+
+        /**
+         * @return conflicts per attempt made
+         */
+        double getConflictRate() {
+            long attempts = calls.sum() + retries.sum();
+            return attempts == 0 ? 0 : (double) conflicts.sum() / attempts;
+        }
+    }
+
+    private final int max_attempts;
+    private final long base_delay_millis;
+    private final long max_delay_millis;
+    private final long deposit;
+    private final long capacity;
+    private final ConcurrentHashMap<String, MethodRetries> methods = new ConcurrentHashMap<String, MethodRetries>();
+
+    RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_BUDGET_RATIO,
+                DEFAULT_BUDGET_CAPACITY);
+    }
+
+    /**
+     * @param maxAttempts    - attempts per call including the first, 1 to never retry
+     * @param budgetRatio    - retries allowed per call in the long run
+     * @param budgetCapacity - retries allowed in a burst
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double budgetRatio, int budgetCapacity) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.max_attempts = maxAttempts;
+        this.base_delay_millis = baseDelayMillis;
+        this.max_delay_millis = maxDelayMillis;
+        this.deposit = (long) (budgetRatio * TOKEN);
+        this.capacity = budgetCapacity * TOKEN;
+    }
+
+    static boolean isRetryable(String sqlState) {
+        return SERIALIZATION_FAILURE.equals(sqlState) || DEADLOCK_DETECTED.equals(sqlState);
+    }
+
+    /**
+     * @return whether e or an exception chained to it, e.g. by a failed batch, is a conflict worth retrying
+     */
+    static boolean isRetryable(SQLException e) {
+        for (; e != null; e = e.getNextException()) {
+            if (isRetryable(e.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    MethodRetries getRetries(String method) {
+        return methods.computeIfAbsent(method, m -> new MethodRetries(capacity));
+    }
+
+    /**
+     * Counts a call and adds to its method's budget.
+     */
+    void recordCall(MethodRetries retries) {
+        retries.calls.increment();
+        retries.budget.accumulateAndGet(deposit, (tokens, add) -> Math.min(capacity, tokens + add));
+    }
+
+    /**
+     * Counts a conflict on the given attempt, and decides whether to retry it.
+     *
+     * @param attempt - 1 for the first attempt
+     * @return how long to wait before the next attempt, or -1 to give up
+     */
+    long onConflict(MethodRetries retries, int attempt) {
+        retries.conflicts.increment();
+        if (attempt >= max_attempts) {
+            retries.exhausted.increment();
+            return -1;
+        }
+        long tokens;
+        do {
+            tokens = retries.budget.get();
+            if (tokens < TOKEN) {
+                retries.over_budget.increment();
+                return -1;
+            }
+        } while (!retries.budget.compareAndSet(tokens, tokens - TOKEN));
+        retries.retries.increment();
+
+        long ceiling = Math.min(max_delay_millis, base_delay_millis << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Prints the calls, conflicts and retries of every method that had a conflict.
+     */
+    void report(PrintStream out) {
+        out.printf("%-30s %9s %9s %9s %9s %11s %9s%n", "method", "calls", "conflicts", "rate", "retries",
+                "exhausted", "no budget");
+        Map<String, MethodRetries> sorted = new TreeMap<String, MethodRetries>(methods);
+        for (Map.Entry<String, MethodRetries> entry : sorted.entrySet()) {
+            MethodRetries retries = entry.getValue();
+            if (retries.getConflicts() == 0) {
+                continue;
+            }
+            out.printf("%-30s %9d %9d %8.2f%% %9d %11d %9d%n", entry.getKey(), retries.getCalls(),
+                    retries.getConflicts(), 100 * retries.getConflictRate(), retries.getRetries(),
+                    retries.getExhausted(), retries.getOverBudget());
+        }
+    }
+}
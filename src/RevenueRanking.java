@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Revenue of one kind of entity (stores or customers) over sliding windows of 1..maxMonths months.
+ * Each entity keeps its revenue per day in a ring buffer covering the longest window, plus a running total per
+ * window length. For every window length the entities are kept in a set ordered by that total, so a top-k ranking
+ * is read off the head of a set. Revenue is held in 1/10000ths, so adding and later removing a day is exact and
+ * equal totals compare as equal. Not thread safe; TopKRevenueEngine synchronizes access.
+ */
+class RevenueRanking {
+    static final long SCALE = 10000;
+
+    private class Entity {
+        final int id;
+        final long[] days = new long[ringSize];
+        final int[] dayLines = new int[ringSize];
+        final long[] totals = new long[maxMonths];
+        final int[] lines = new int[maxMonths];
+        final Node[] nodes = new Node[maxMonths];
+
+        Entity(int id) {
+            this.id = id;
+            for (int x = 0; x < maxMonths; x++) {
+                nodes[x] = new Node(this, x);
+            }
+        }
+    }
+
+    private static class Node {
+        final Entity entity;
+        final int window;
+
+        Node(Entity entity, int window) {
+            this.entity = entity;
+            this.window = window;
+        }
+
+        long total() {
+            return entity.totals[window];
+        }
+    }
+
+    private final int maxMonths;
+    private final int ringSize;
+    private final Map<Integer, Entity> entities = new HashMap<Integer, Entity>();
+    private final List<TreeSet<Node>> rankings = new ArrayList<TreeSet<Node>>();
+    // revenue dated after today: counted in every window already, moved into the ring buffers once its day comes
+    private final TreeMap<Long, Map<Integer, long[]>> future = new TreeMap<Long, Map<Integer, long[]>>();
+    private long today;
+
+    RevenueRanking(int maxMonths, long today) {
+        this.maxMonths = maxMonths;
+        // window x covers the days today - 30 * x .. today
+        this.ringSize = 30 * maxMonths + 1;
+        this.today = today;
+
+        Comparator<Node> byRevenue = (a, b) -> {
+            int cmp = Long.compare(b.total(), a.total());
+            return cmp != 0 ? cmp : Integer.compare(a.entity.id, b.entity.id);
+        };
+        for (int x = 0; x < maxMonths; x++) {
+            rankings.add(new TreeSet<Node>(byRevenue));
+        }
+    }
+
+    long getToday() {
+        return today;
+    }
+
+    /**
+     * Adds revenue of an entity on the given day. Days before the longest window are ignored.
+     */
+    void add(int id, long day, double revenue) {
+        if (day < today - 30L * maxMonths) {
+            return;
+        }
+        long amount = Math.round(revenue * SCALE);
+        Entity entity = entities.computeIfAbsent(id, Entity::new);
+
+        if (day > today) {
+            long[] pending = future.computeIfAbsent(day, d -> new HashMap<Integer, long[]>())
+                    .computeIfAbsent(id, i -> new long[2]);
+            pending[0] += amount;
+            pending[1]++;
+            for (int x = 0; x < maxMonths; x++) {
+                update(entity, x, amount, 1);
+            }
+            return;
+        }
+
+        int slot = slot(day);
+        entity.days[slot] += amount;
+        entity.dayLines[slot]++;
+        for (int x = 0; x < maxMonths; x++) {
+            if (day >= today - 30L * (x + 1)) {
+                update(entity, x, amount, 1);
+            }
+        }
+    }
+
+    /**
+     * Moves the windows forward to end at the given day, dropping the days that fall out of each window.
+     */
+    void advanceTo(long day) {
+        while (today < day) {
+            if (day - today > ringSize && future.isEmpty()) {
+                reset(day);
+                return;
+            }
+            advanceOneDay();
+        }
+    }
+
+    private void advanceOneDay() {
+        for (Entity entity : entities.values()) {
+            for (int x = 0; x < maxMonths; x++) {
+                int slot = slot(today - 30L * (x + 1));
+                if (entity.dayLines[slot] > 0) {
+                    update(entity, x, -entity.days[slot], -entity.dayLines[slot]);
+                }
+            }
+            // the oldest day has now left every window, and its slot becomes tomorrow's
+            int oldest = slot(today - 30L * maxMonths);
+            entity.days[oldest] = 0;
+            entity.dayLines[oldest] = 0;
+        }
+        today++;
+
+        Map<Integer, long[]> arriving = future.remove(today);
+        if (arriving != null) {
+            for (Map.Entry<Integer, long[]> entry : arriving.entrySet()) {
+                Entity entity = entities.get(entry.getKey());
+                int slot = slot(today);
+                entity.days[slot] += entry.getValue()[0];
+                entity.dayLines[slot] += (int) entry.getValue()[1];
+            }
+        }
+    }
+
+    private void reset(long day) {
+        entities.clear();
+        for (TreeSet<Node> ranking : rankings) {
+            ranking.clear();
+        }
+        today = day;
+    }
+
+    private void update(Entity entity, int x, long amount, int lineCount) {
+        Node node = entity.nodes[x];
+        TreeSet<Node> ranking = rankings.get(x);
+        if (entity.lines[x] > 0) {
+            ranking.remove(node);
+        }
+        entity.totals[x] += amount;
+        entity.lines[x] += lineCount;
+        if (entity.lines[x] > 0) {
+            ranking.add(node);
+        } else {
+            entity.totals[x] = 0;
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) ringSize);
+    }
+
+    /**
+     * Passes the ID's of the top k entities over the past x months to the sink, highest revenue first, including
+     * every entity tied with the kth.
+     *
+     * @return the number of ID's passed, or -1 if x is outside the windows kept in memory
+     */
+    int topK(int k, int x, IntConsumer sink) {
+        if (x < 1 || x > maxMonths) {
+            return -1;
+        }
+        int count = 0;
+        if (k <= 0) {
+            return count;
+        }
+        long last = 0;
+        for (Node node : rankings.get(x - 1)) {
+            if (count >= k && node.total() != last) {
+                break;
+            }
+            sink.accept(node.entity.id);
+            count++;
+            last = node.total();
+        }
+        return count;
+    }
+}
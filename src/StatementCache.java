@@ -0,0 +1,114 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements owned by a single connection, keyed by SQL text.
+ * Statements are reused across calls so the driver can switch them to server side prepared statements
+ * (after prepareThreshold executions) instead of parsing and planning the query on every call.
+ * Like the connection it belongs to, a cache is not safe for concurrent use.
+ */
+class StatementCache implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Connection conn;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public StatementCache(Connection conn) {
+        this(conn, DEFAULT_CAPACITY);
+    }
+
+    public StatementCache(Connection conn, int capacity) {
+        this.conn = conn;
+        this.capacity = capacity;
+        // access ordered so the least recently used statement is evicted first
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, null);
+    }
+
+    /**
+     * @param generatedColumns - columns to return from getGeneratedKeys(), or null
+     * @return a statement for sql with its parameters cleared
+     */
+    public PreparedStatement prepare(String sql, String[] generatedColumns) throws SQLException {
+        String key = generatedColumns == null ? sql : sql + "\u0000" + String.join(",", generatedColumns);
+
+        PreparedStatement stmt = statements.get(key);
+        if (stmt != null && !stmt.isClosed()) {
+            hits.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+        }
+
+        misses.incrementAndGet();
+        if (generatedColumns == null) {
+            stmt = conn.prepareStatement(sql);
+        } else {
+            stmt = conn.prepareStatement(sql, generatedColumns);
+        }
+        statements.put(key, stmt);
+        evictOverflow();
+        return stmt;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > capacity && it.hasNext()) {
+            closeQuietly(it.next().getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Closes every cached statement. Needed whenever the schema is recreated, since the server side plans
+     * reference the dropped tables.
+     */
+    public void clear() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // statement is discarded either way
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * A template database holding the schema and a loaded data set, cloned into a fresh database before each
+ * benchmark run. CREATE DATABASE ... TEMPLATE copies the files of the template, so a run starts from the same
+ * state in seconds however large the data set is, instead of rerunning the scripts and reloading the rows.
+ * The template is labelled with a key describing its contents and kept between runs; it is only rebuilt when a
+ * different key is asked for.
+ */
+class TemplateDatabase {
+    interface Setup {
+        /**
+         * Fills the template through a connection to it.
+         *
+         * @return whether the template is complete
+         */
+        boolean run(BoutiqueCoffee db);
+    }
+
+    private final String server_url;
+    private final String username;
+    private final String password;
+    private final String template;
+    private final Properties props = new Properties();
+
+    /**
+     * @param serverUrl - JDBC URL of the server ending in a slash, e.g. jdbc:postgresql://localhost/
+     * @param template  - name of the template database
+     */
+    TemplateDatabase(String serverUrl, String username, String password, String template) {
+        this.server_url = serverUrl;
+        this.username = username;
+        this.password = password;
+        this.template = template;
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+    }
+
+    String urlOf(String database) {
+        return server_url + database;
+    }
+
+    /**
+     * Builds the template with setup, unless it already exists with the same key.
+     *
+     * @return whether the template was rebuilt
+     */
+    boolean prepare(String key, Setup setup) throws SQLException, ClassNotFoundException {
+        try (Connection conn = maintenanceConnection(); Statement stmt = conn.createStatement()) {
+            if (key.equals(label(conn))) {
+                return false;
+            }
+            drop(stmt, template);
+            stmt.execute("CREATE DATABASE " + quote(template));
+        }
+
+        BoutiqueCoffee db = new BoutiqueCoffee(urlOf(template), username, password);
+        boolean complete;
+        try {
+            complete = setup.run(db);
+        } finally {
+            db.close();
+        }
+        if (!complete) {
+            throw new SQLException("Setting up template database " + template + " failed");
+        }
+
+        try (Connection conn = maintenanceConnection(); Statement stmt = conn.createStatement()) {
+            // no connections may be open to a template while it is cloned, so none are allowed
+            stmt.execute("ALTER DATABASE " + quote(template) + " WITH IS_TEMPLATE true ALLOW_CONNECTIONS false");
+            stmt.execute("COMMENT ON DATABASE " + quote(template) + " IS " + literal(key));
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the target database with a copy of the template, disconnecting anyone still connected to it.
+     */
+    void cloneTo(String target) throws SQLException {
+        try (Connection conn = maintenanceConnection(); Statement stmt = conn.createStatement()) {
+            drop(stmt, target);
+            // PostgreSQL 15 defaults to WAL logging every copied page, which is much slower for a large template
+            String strategy = conn.getMetaData().getDatabaseMajorVersion() >= 15 ? " STRATEGY FILE_COPY" : "";
+            stmt.execute("CREATE DATABASE " + quote(target) + " TEMPLATE " + quote(template) + strategy);
+        }
+    }
+
+    /**
+     * Drops the template, e.g. to free its space once benchmarking is done.
+     */
+    void dropTemplate() throws SQLException {
+        try (Connection conn = maintenanceConnection(); Statement stmt = conn.createStatement()) {
+            drop(stmt, template);
+        }
+    }
+
+    private Connection maintenanceConnection() throws SQLException {
+        // CREATE and DROP DATABASE cannot run inside a transaction
+        Connection conn = DriverManager.getConnection(urlOf("postgres"), props);
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    private String label(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT shobj_description(oid, 'pg_database') FROM pg_database WHERE datname = ? AND datistemplate")) {
+            stmt.setString(1, template);
+            try (ResultSet values = stmt.executeQuery()) {
+                return values.next() ? values.getString(1) : null;
+            }
+        }
+    }
+
+    private static void drop(Statement stmt, String database) throws SQLException {
+        boolean isTemplate;
+        try (ResultSet values = stmt.executeQuery("SELECT datistemplate FROM pg_database WHERE datname = "
+                + literal(database))) {
+            if (!values.next()) {
+                return;
+            }
+            isTemplate = values.getBoolean(1);
+        }
+        if (isTemplate) {
+            stmt.execute("ALTER DATABASE " + quote(database) + " WITH IS_TEMPLATE false");
+        }
+        stmt.execute("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = " + literal(database)
+                + " AND pid <> pg_backend_pid()");
+        stmt.execute("DROP DATABASE IF EXISTS " + quote(database));
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,142 @@
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * In memory revenue of every store and customer over the past 1..maxMonths months, answering
+ * getTopKStoresInPastXMonth and getTopKCustomersInPastXMonth without a query.
+ * It is warm loaded from the daily revenue rollups and then fed by the purchases made through BoutiqueCoffee,
+ * so purchases written by other processes are only seen after the next reload. Purchases the load's snapshot
+ * already saw are not added again, even when they are reported after the load.
+ */
+class TopKRevenueEngine {
+    public static final int DEFAULT_MAX_MONTHS = 12;
+
+    private final int maxMonths;
+    private final Map<Integer, Double> prices = new HashMap<Integer, Double>();
+    private RevenueRanking stores;
+    private RevenueRanking customers;
+    private boolean loaded;
+    private TransactionSnapshot loaded_from;
+
+    TopKRevenueEngine(int maxMonths) {
+        if (maxMonths <= 0) {
+            throw new IllegalArgumentException("maxMonths must be positive");
+        }
+        this.maxMonths = maxMonths;
+        clear();
+    }
+
+    int getMaxMonths() {
+        return maxMonths;
+    }
+
+    static long today() {
+        return LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * Empties the engine; it has to be reloaded before it answers again.
+     */
+    synchronized void clear() {
+        prices.clear();
+        stores = new RevenueRanking(maxMonths, today());
+        customers = new RevenueRanking(maxMonths, today());
+        loaded = false;
+        loaded_from = null;
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @param snapshot - the snapshot the prices and revenue were read in
+     */
+    synchronized void markLoaded(TransactionSnapshot snapshot) {
+        loaded = true;
+        loaded_from = snapshot;
+    }
+
+    /**
+     * @return the first day whose revenue is needed to fill every window
+     */
+    synchronized long firstDay() {
+        return stores.getToday() - 30L * maxMonths;
+    }
+
+    synchronized void setCoffeePrice(int coffeeId, double price) {
+        prices.put(coffeeId, price);
+    }
+
+    synchronized void addStoreRevenue(int storeId, long day, double revenue) {
+        stores.add(storeId, day, revenue);
+    }
+
+    synchronized void addCustomerRevenue(int customerId, long day, double revenue) {
+        customers.add(customerId, day, revenue);
+    }
+
+    /**
+     * Adds a purchase that was just committed, unless the engine was loaded from a snapshot that already saw it.
+     * If the price of one of its coffees is unknown the engine cannot account for it, so it is cleared to be
+     * reloaded instead.
+     *
+     * @param txid - the transaction that committed the purchase
+     */
+    synchronized void recordPurchase(long txid, int customerId, int storeId, Date purchaseTime, List<Integer> coffeeIds,
+                                     List<Integer> purchaseQuantities) {
+        if (!loaded || loaded_from.sees(txid)) {
+            return;
+        }
+        double revenue = 0;
+        for (int i = 0; i < coffeeIds.size(); i++) {
+            Double price = prices.get(coffeeIds.get(i));
+            if (price == null) {
+                clear();
+                return;
+            }
+            revenue += purchaseQuantities.get(i) * price;
+        }
+
+        long day = purchaseTime.toLocalDate().toEpochDay();
+        advance();
+        stores.add(storeId, day, revenue);
+        customers.add(customerId, day, revenue);
+    }
+
+    /**
+     * Passes the ranking as specified by ITransactionManager.getTopKStoresInPastXMonth to the sink.
+     *
+     * @return the number of ID's passed, or -1 if the engine is not loaded or x is longer than the windows it keeps
+     */
+    synchronized int topKStores(int k, int x, IntConsumer sink) {
+        if (!loaded) {
+            return -1;
+        }
+        advance();
+        return stores.topK(k, x, sink);
+    }
+
+    /**
+     * Passes the ranking as specified by ITransactionManager.getTopKCustomersInPastXMonth to the sink.
+     *
+     * @return the number of ID's passed, or -1 if the engine is not loaded or x is longer than the windows it keeps
+     */
+    synchronized int topKCustomers(int k, int x, IntConsumer sink) {
+        if (!loaded) {
+            return -1;
+        }
+        advance();
+        return customers.topK(k, x, sink);
+    }
+
+    private void advance() {
+        long day = today();
+        stores.advanceTo(day);
+        customers.advanceTo(day);
+    }
+}
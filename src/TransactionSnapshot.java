@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+/**
+ * The transactions whose changes a PostgreSQL snapshot sees, parsed from txid_current_snapshot(): xmin:xmax:xip.
+ * An in memory view loaded from a snapshot keeps it, so that a purchase reported to it afterwards is only added if
+ * the view did not already load it, however late the report comes.
+ */
+class TransactionSnapshot {
+    private final long xmin;
+    private final long xmax;
+    // transactions that were in progress when the snapshot was taken, sorted
+    private final long[] xip;
+
+    private TransactionSnapshot(long xmin, long xmax, long[] xip) {
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.xip = xip;
+    }
+
+    /**
+     * @param text - a txid_snapshot as text, e.g. 10:20:10,14,15
+     */
+    static TransactionSnapshot parse(String text) {
+        String[] parts = text.split(":");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Not a txid_snapshot: " + text);
+        }
+        long[] xip = parts.length == 3 && !parts[2].isEmpty()
+                ? Arrays.stream(parts[2].split(",")).mapToLong(Long::parseLong).sorted().toArray()
+                : new long[0];
+        return new TransactionSnapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), xip);
+    }
+
+    /**
+     * @return whether the snapshot sees the changes of the committed transaction txid, as txid_visible_in_snapshot
+     */
+    boolean sees(long txid) {
+        if (txid < xmin) {
+            return true;
+        }
+        return txid < xmax && Arrays.binarySearch(xip, txid) < 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder().append(xmin).append(':').append(xmax).append(':');
+        for (int i = 0; i < xip.length; i++) {
+            text.append(i == 0 ? "" : ",").append(xip[i]);
+        }
+        return text.toString();
+    }
+}
@@ -9,73 +9,81 @@
 --
 -- points_change = points_added - points_spent
 -- (BuyCoffee->Purchase->Customer.Total_Points) += points_change
+--
+-- the trigger runs once per INSERT statement: the changes of the inserted rows are summed per purchase, each
+-- purchase is checked against its customer's points as they stand after the customer's earlier purchases in the
+-- statement, in order of purchase time and ID, and the net changes are applied with a single UPDATE per customer
 CREATE OR REPLACE FUNCTION boutique_coffee.points_change() RETURNS TRIGGER AS
 $$
 DECLARE
-    boost      FLOAT;
-    rewards    INT;
-    redeems    INT;
-    isPromoted INT;
-    added      FLOAT;
-    delta      INT;
-    prev       INT;
-    customer   INT;
+    customers INT[];
+    deltas    INT[];
+    low       RECORD;
 BEGIN
 
-    -- get necessary values for computation
-    SELECT m.booster_factor
-    INTO boost
-    FROM (SELECT NEW.*) i
-             NATURAL INNER JOIN boutique_coffee.purchase
-             NATURAL INNER JOIN boutique_coffee.customer
-             NATURAL INNER JOIN boutique_coffee.memberlevel AS m;
-
-    SELECT c.reward_points, c.redeem_points
-    INTO rewards, redeems
-    FROM (SELECT NEW.*) i
-             NATURAL INNER JOIN boutique_coffee.coffee AS c;
-
-    SELECT count(promo.coffee_id)
-    INTO isPromoted
-    FROM (SELECT NEW.*) i
-             NATURAL INNER JOIN boutique_coffee.purchase as purch
-             NATURAL INNER JOIN boutique_coffee.haspromotion
-             NATURAL INNER JOIN boutique_coffee.promotefor as promo
-             NATURAL INNER JOIN boutique_coffee.promotion as p
-    WHERE purch.purchase_time < p.end_date
-      AND purch.purchase_time > p.start_date;
-
-    -- compute change in points
-    added := (NEW.purchase_quantity * rewards * boost);
-
-    SELECT c.total_points
-    INTO prev
-    FROM (SELECT NEW.*) i
-             NATURAL INNER JOIN boutique_coffee.purchase
-             NATURAL INNER JOIN boutique_coffee.customer as c;
-
-    IF isPromoted > 0 THEN
-        added := added * 2;
+    -- compute change in points for every inserted purchase, in purchase order
+    SELECT array_agg(changes.customer_id ORDER BY changes.purchase_time, changes.purchase_id),
+           array_agg(CAST(changes.delta AS INT) ORDER BY changes.purchase_time, changes.purchase_id)
+    INTO customers, deltas
+    FROM (SELECT p.customer_id,
+                 p.purchase_time,
+                 p.purchase_id,
+                 sum(CAST(i.purchase_quantity * CAST(c.reward_points AS INT) * m.booster_factor
+                              * (CASE WHEN EXISTS(SELECT 1
+                                                  FROM boutique_coffee.haspromotion AS hp
+                                                           INNER JOIN boutique_coffee.promotefor AS promo
+                                                                      ON promo.promotion_id = hp.promotion_id
+                                                           INNER JOIN boutique_coffee.promotion AS pr
+                                                                      ON pr.promotion_id = hp.promotion_id
+                                                  WHERE hp.store_id = p.store_id
+                                                    AND promo.coffee_id = i.coffee_id
+                                                    AND p.purchase_time < pr.end_date
+                                                    AND p.purchase_time > pr.start_date)
+                                          THEN 2
+                                      ELSE 1 END) AS INT)
+                     - i.redeem_quantity * CAST(c.redeem_points AS INT)) AS delta
+          FROM new_rows AS i
+                   INNER JOIN boutique_coffee.purchase AS p
+                              ON p.purchase_id = i.purchase_id AND p.purchase_time = i.purchase_time
+                   INNER JOIN boutique_coffee.customer AS cu ON cu.customer_id = p.customer_id
+                   INNER JOIN boutique_coffee.memberlevel AS m ON m.memberlevel_id = cu.memberlevel_id
+                   INNER JOIN boutique_coffee.coffee AS c ON c.coffee_id = i.coffee_id
+          GROUP BY p.customer_id, p.purchase_time, p.purchase_id) AS changes;
+
+    IF customers IS NULL THEN
+        RETURN NULL;
     END IF;
 
-    delta := CAST(added as INT) - (NEW.redeem_quantity * redeems);
+    -- points earned by a later purchase in the statement cannot pay for an earlier one
+    SELECT -1 * d.delta AS spent, CAST(c.total_points AS INT) + d.earlier AS prev
+    INTO low
+    FROM (SELECT u.customer_id,
+                 u.delta,
+                 u.n,
+                 sum(u.delta) OVER (PARTITION BY u.customer_id ORDER BY u.n) - u.delta AS earlier
+          FROM unnest(customers, deltas) WITH ORDINALITY AS u(customer_id, delta, n)) AS d
+             INNER JOIN boutique_coffee.customer AS c ON c.customer_id = d.customer_id
+    WHERE -1 * d.delta > CAST(c.total_points AS INT) + d.earlier
+    ORDER BY d.n
+    LIMIT 1;
 
-    IF -1 * delta > prev THEN
+    IF FOUND THEN
 
         RAISE EXCEPTION USING
             errcode = 'PTLOW',
-            message = FORMAT('Customer must spend %s points, but they only have %s', -1 * delta, prev),
+            message = FORMAT('Customer must spend %s points, but they only have %s', low.spent, low.prev),
             hint = 'reduce the value of the Redeem_Quantity column';
     END IF;
 
     -- update table with requisite data
     UPDATE boutique_coffee.customer AS c
-    SET total_points = total_points + delta
-    FROM (SELECT NEW.*) i
-             NATURAL INNER JOIN boutique_coffee.purchase as p
-    WHERE c.customer_id = p.customer_id;
+    SET total_points = total_points + d.delta
+    FROM (SELECT u.customer_id, sum(u.delta) AS delta
+          FROM unnest(customers, deltas) AS u(customer_id, delta)
+          GROUP BY u.customer_id) AS d
+    WHERE c.customer_id = d.customer_id;
 
-    RETURN NEW;
+    RETURN NULL;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -83,5 +91,70 @@ DROP TRIGGER IF EXISTS adjust_points_insert ON boutique_coffee.buycoffee;
 CREATE TRIGGER adjust_points_insert
     AFTER INSERT
     ON boutique_coffee.buycoffee
-    FOR EACH ROW
-EXECUTE PROCEDURE boutique_coffee.points_change();
\ No newline at end of file
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+EXECUTE PROCEDURE boutique_coffee.points_change();
+
+-- keep the daily revenue rollups used by top_stores and top_customers current
+-- revenue = (BuyCoffee.Purchase_Quantity) * (BuyCoffee->Coffee.Price), bucketed by (BuyCoffee.Purchase_Time)
+CREATE OR REPLACE FUNCTION boutique_coffee.revenue_rollup() RETURNS TRIGGER AS
+$$
+BEGIN
+
+    INSERT INTO boutique_coffee.storedailyrevenue AS r (store_id, day, revenue)
+    SELECT p.store_id, i.purchase_time, sum(i.purchase_quantity * c.price)
+    FROM new_rows AS i
+             INNER JOIN boutique_coffee.purchase AS p
+                        ON p.purchase_id = i.purchase_id AND p.purchase_time = i.purchase_time
+             INNER JOIN boutique_coffee.coffee AS c ON c.coffee_id = i.coffee_id
+    GROUP BY p.store_id, i.purchase_time
+    ON CONFLICT (store_id, day) DO UPDATE SET revenue = r.revenue + EXCLUDED.revenue;
+
+    INSERT INTO boutique_coffee.customerdailyrevenue AS r (customer_id, day, revenue)
+    SELECT p.customer_id, i.purchase_time, sum(i.purchase_quantity * c.price)
+    FROM new_rows AS i
+             INNER JOIN boutique_coffee.purchase AS p
+                        ON p.purchase_id = i.purchase_id AND p.purchase_time = i.purchase_time
+             INNER JOIN boutique_coffee.coffee AS c ON c.coffee_id = i.coffee_id
+    GROUP BY p.customer_id, i.purchase_time
+    ON CONFLICT (customer_id, day) DO UPDATE SET revenue = r.revenue + EXCLUDED.revenue;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS revenue_rollup_insert ON boutique_coffee.buycoffee;
+CREATE TRIGGER revenue_rollup_insert
+    AFTER INSERT
+    ON boutique_coffee.buycoffee
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+EXECUTE PROCEDURE boutique_coffee.revenue_rollup();
+
+-- rebuild both rollups from scratch, e.g. after purchases were loaded with triggers disabled
+CREATE OR REPLACE FUNCTION boutique_coffee.refresh_revenue_rollups() RETURNS VOID AS
+$$
+BEGIN
+
+    DELETE FROM boutique_coffee.storedailyrevenue;
+    DELETE FROM boutique_coffee.customerdailyrevenue;
+
+    INSERT INTO boutique_coffee.storedailyrevenue (store_id, day, revenue)
+    SELECT p.store_id, p.purchase_time, sum(b.purchase_quantity * c.price)
+    FROM boutique_coffee.purchase AS p
+             INNER JOIN boutique_coffee.buycoffee AS b
+                        ON b.purchase_id = p.purchase_id AND b.purchase_time = p.purchase_time
+             INNER JOIN boutique_coffee.coffee AS c ON c.coffee_id = b.coffee_id
+    GROUP BY p.store_id, p.purchase_time;
+
+    INSERT INTO boutique_coffee.customerdailyrevenue (customer_id, day, revenue)
+    SELECT p.customer_id, p.purchase_time, sum(b.purchase_quantity * c.price)
+    FROM boutique_coffee.purchase AS p
+             INNER JOIN boutique_coffee.buycoffee AS b
+                        ON b.purchase_id = p.purchase_id AND b.purchase_time = p.purchase_time
+             INNER JOIN boutique_coffee.coffee AS c ON c.coffee_id = b.coffee_id
+    GROUP BY p.customer_id, p.purchase_time;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT boutique_coffee.refresh_revenue_rollups();
@@ -0,0 +1,59 @@
+-- checks of the points trigger, run after schema.sql and trigger.sql with e.g. psql -f trigger_test.sql
+-- everything runs in one transaction that is rolled back; a failed check raises an exception
+BEGIN;
+
+DO
+$$
+DECLARE
+    level    INT;
+    store    INT;
+    coffee   INT;
+    customer INT;
+    first    INT;
+    second   INT;
+    points   FLOAT;
+BEGIN
+
+    INSERT INTO boutique_coffee.memberlevel(name, booster_factor) VALUES ('Test', 1) RETURNING memberlevel_id INTO level;
+    INSERT INTO boutique_coffee.store(name, address, store_type, gps_long, gps_lat)
+    VALUES ('Test', 'Test', 'Coffee', 0, 0) RETURNING store_id INTO store;
+    INSERT INTO boutique_coffee.coffee(name, description, intensity, price, reward_points, redeem_points)
+    VALUES ('Test', 'Test', 1, 1, 10, 10) RETURNING coffee_id INTO coffee;
+    INSERT INTO boutique_coffee.customer(first_name, last_name, email, memberlevel_id, total_points)
+    VALUES ('Test', 'Test', 'Test', level, 5) RETURNING customer_id INTO customer;
+
+    INSERT INTO boutique_coffee.purchase(customer_id, store_id, purchase_time)
+    VALUES (customer, store, '2020-01-01') RETURNING purchase_id INTO first;
+    INSERT INTO boutique_coffee.purchase(customer_id, store_id, purchase_time)
+    VALUES (customer, store, '2020-01-02') RETURNING purchase_id INTO second;
+
+    -- the first purchase redeems 10 points with only 5, the second earns 20: the batch nets +10 but must fail
+    BEGIN
+        INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity, purchase_time)
+        VALUES (first, coffee, 0, 1, '2020-01-01'),
+               (second, coffee, 2, 0, '2020-01-02');
+        RAISE EXCEPTION 'overdrawing purchase paid for by a later one in the same statement was accepted';
+    EXCEPTION
+        WHEN SQLSTATE 'PTLOW' THEN NULL;
+    END;
+
+    SELECT total_points INTO points FROM boutique_coffee.customer WHERE customer_id = customer;
+    IF points <> 5 THEN
+        RAISE EXCEPTION 'points changed by a rejected statement: %', points;
+    END IF;
+
+    -- earning first and then redeeming in the same statement is allowed
+    INSERT INTO boutique_coffee.buycoffee(purchase_id, coffee_id, purchase_quantity, redeem_quantity, purchase_time)
+    VALUES (first, coffee, 2, 0, '2020-01-01'),
+           (second, coffee, 0, 2, '2020-01-02');
+
+    SELECT total_points INTO points FROM boutique_coffee.customer WHERE customer_id = customer;
+    IF points <> 5 THEN
+        RAISE EXCEPTION 'expected 5 points after earning 20 and redeeming 20, found %', points;
+    END IF;
+
+    RAISE NOTICE 'points trigger checks passed';
+END;
+$$;
+
+ROLLBACK;